@@ -0,0 +1,87 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.apache.commons.io.FileUtils.forceMkdir;
+
+/**
+ * Extracts zip or tar.gz archive read from a stream, so installation proceeds while the archive is still being
+ * downloaded. Unix permissions of zip entries are stored only in central directory at the end of the archive, so
+ * files in bin directories are made executable instead, as extracting Elasticsearch archive from file would do.
+ */
+class ArchiveStreamExtractor {
+
+    private static final int EXECUTABLE_BY_OWNER = 0100;
+
+    private ArchiveStreamExtractor() {
+    }
+
+    static boolean supports(String fileName) {
+        return fileName.endsWith(".zip") || fileName.endsWith(".tar.gz") || fileName.endsWith(".tgz");
+    }
+
+    /**
+     * Input is not closed, so the caller can read the rest of it
+     */
+    static void extract(InputStream input, String fileName, File destination) throws IOException {
+        ArchiveInputStream archive = open(input, fileName);
+        String destinationPath = destination.getCanonicalPath() + File.separator;
+        ArchiveEntry entry;
+        while ((entry = archive.getNextEntry()) != null) {
+            File file = new File(destination, entry.getName());
+            if (!file.getCanonicalPath().startsWith(destinationPath)) {
+                throw new IOException("Archive entry " + entry.getName() + " is outside of " + destination);
+            }
+            if (entry.isDirectory()) {
+                forceMkdir(file);
+            } else if (entry instanceof TarArchiveEntry && ((TarArchiveEntry) entry).isSymbolicLink()) {
+                forceMkdir(file.getParentFile());
+                Files.deleteIfExists(file.toPath());
+                Files.createSymbolicLink(file.toPath(), Paths.get(((TarArchiveEntry) entry).getLinkName()));
+            } else {
+                forceMkdir(file.getParentFile());
+                try (OutputStream output = Files.newOutputStream(file.toPath())) {
+                    IOUtils.copy(archive, output);
+                }
+                if (isExecutable(entry, file)) {
+                    file.setExecutable(true, false);
+                }
+            }
+        }
+    }
+
+    private static ArchiveInputStream open(InputStream input, String fileName) throws IOException {
+        if (fileName.endsWith(".zip")) {
+            return new ZipArchiveInputStream(input);
+        }
+        if (fileName.endsWith(".tar.gz") || fileName.endsWith(".tgz")) {
+            return new TarArchiveInputStream(new GzipCompressorInputStream(input));
+        }
+        throw new IOException("Unsupported archive " + fileName);
+    }
+
+    private static boolean isExecutable(ArchiveEntry entry, File file) {
+        if (entry instanceof TarArchiveEntry) {
+            return (((TarArchiveEntry) entry).getMode() & EXECUTABLE_BY_OWNER) != 0;
+        }
+        int unixMode = ((ZipArchiveEntry) entry).getUnixMode();
+        if (unixMode != 0) {
+            return (unixMode & EXECUTABLE_BY_OWNER) != 0;
+        }
+        return file.getParentFile().getName().equals("bin") || file.getName().equals("jspawnhelper");
+    }
+}
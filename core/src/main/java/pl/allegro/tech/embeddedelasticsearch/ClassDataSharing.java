@@ -0,0 +1,81 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Class data sharing archive of Elasticsearch classes. It is dumped when node started for the first time exits and is
+ * mapped by subsequent nodes, which saves a large part of time spent on class loading. Requires dynamic archiving
+ * introduced in Java 13, older runtimes run without the archive.
+ */
+class ClassDataSharing {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClassDataSharing.class);
+    private static final int MINIMAL_JAVA_VERSION = 13;
+
+    private final File archive;
+    private final File baseline;
+    private final boolean archiveAvailable;
+
+    private ClassDataSharing(File archive) {
+        this.archive = archive;
+        this.baseline = new File(archive.getParentFile(), archive.getName() + ".baseline");
+        this.archiveAvailable = archive.isFile();
+    }
+
+    static Optional<ClassDataSharing> forInstallation(File installationDirectory, String installationFingerprint, JavaHomeOption javaHome) throws InterruptedException {
+        JavaRuntime javaRuntime = JavaRuntime.of(javaHome);
+        int javaVersion;
+        try {
+            javaVersion = javaRuntime.getMajorVersion();
+        } catch (IOException e) {
+            logger.info("Unable to determine version of java used by Elasticsearch, class data sharing disabled", e);
+            return Optional.empty();
+        }
+        if (javaVersion < MINIMAL_JAVA_VERSION) {
+            logger.info("Java " + javaVersion + " does not support dynamic class data sharing archives, class data sharing disabled");
+            return Optional.empty();
+        }
+        String key = InstallationManifest.fingerprint(installationFingerprint, javaRuntime.getExecutable(), String.valueOf(javaVersion));
+        File archive = new File(installationDirectory.getParentFile(), installationDirectory.getName() + "-" + key.substring(0, 12) + ".jsa");
+        return Optional.of(new ClassDataSharing(archive));
+    }
+
+    /**
+     * @return whether archive was already dumped by previous run; nodes started before that run without the archive
+     */
+    boolean isArchiveAvailable() {
+        return archiveAvailable;
+    }
+
+    String extendJavaOpts(String esJavaOpts) {
+        String option = archiveAvailable
+                ? "-XX:SharedArchiveFile=" + archive.getAbsolutePath()
+                : "-XX:ArchiveClassesAtExit=" + archive.getAbsolutePath();
+        return (esJavaOpts + " " + option).trim();
+    }
+
+    void reportStartup(long startupTimeInMs) {
+        try {
+            if (!archiveAvailable) {
+                FileUtils.writeStringToFile(baseline, String.valueOf(startupTimeInMs), UTF_8);
+                logger.info("Elasticsearch started in " + startupTimeInMs + " ms, class data sharing archive will be created in " + archive + " on exit");
+            } else if (baseline.isFile()) {
+                long baselineInMs = Long.parseLong(FileUtils.readFileToString(baseline, UTF_8).trim());
+                logger.info("Elasticsearch started in " + startupTimeInMs + " ms using class data sharing archive, "
+                        + (baselineInMs - startupTimeInMs) + " ms faster than start without it (" + baselineInMs + " ms)");
+            } else {
+                logger.info("Elasticsearch started in " + startupTimeInMs + " ms using class data sharing archive");
+            }
+        } catch (IOException | NumberFormatException e) {
+            logger.debug("Unable to report class data sharing startup time", e);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Local cluster of nodes started from one installation. Each node gets its own ports, data and logs directories and
+ * finds other nodes with unicast discovery on loopback transport ports.
+ */
+class ClusterTopology {
+
+    private final List<Integer> httpPorts;
+    private final List<Integer> transportTcpPorts;
+
+    ClusterTopology(List<Integer> httpPorts, List<Integer> transportTcpPorts) {
+        this.httpPorts = Collections.unmodifiableList(httpPorts);
+        this.transportTcpPorts = Collections.unmodifiableList(transportTcpPorts);
+    }
+
+    /**
+     * @param ports reserved ports, http ports of all nodes followed by their transport ports
+     */
+    static ClusterTopology withReservedPorts(int nodes, List<Integer> ports) {
+        return new ClusterTopology(new ArrayList<>(ports.subList(0, nodes)), new ArrayList<>(ports.subList(nodes, 2 * nodes)));
+    }
+
+    int getNodes() {
+        return httpPorts.size();
+    }
+
+    int getHttpPort(int node) {
+        return httpPorts.get(node);
+    }
+
+    int getTransportTcpPort(int node) {
+        return transportTcpPorts.get(node);
+    }
+
+    /**
+     * Settings of given node, to be passed on command line on top of shared elasticsearch.yml
+     */
+    InstanceSettings nodeSettings(int node, InstallationDescription installationDescription, InstanceDirectory instanceDirectory) {
+        String nodeName = nodeName(node);
+        InstanceSettings settings = new InstanceSettings()
+                .withSetting("node.name", nodeName)
+                .withSetting(PopularProperties.HTTP_PORT, httpPorts.get(node))
+                .withSetting(PopularProperties.TRANSPORT_TCP_PORT, transportTcpPorts.get(node))
+                .withSetting("path.data", new File(instanceDirectory.getDataDirectory(), nodeName).getAbsolutePath())
+                .withSetting("path.logs", new File(instanceDirectory.getLogsDirectory(), nodeName).getAbsolutePath());
+        String hosts = transportTcpPorts.stream()
+                .map(port -> "127.0.0.1:" + port)
+                .collect(Collectors.joining(","));
+        if (usesZenDiscovery(installationDescription)) {
+            settings = settings
+                    .withSetting("discovery.zen.ping.unicast.hosts", hosts)
+                    .withSetting("discovery.zen.minimum_master_nodes", getNodes() / 2 + 1);
+            if (installationDescription.versionIs1x()) {
+                settings = settings.withSetting("discovery.zen.ping.multicast.enabled", false);
+            }
+        } else {
+            settings = settings
+                    .withSetting("discovery.seed_hosts", hosts)
+                    .withSetting("cluster.initial_master_nodes", IntStream.range(0, getNodes())
+                            .mapToObj(ClusterTopology::nodeName)
+                            .collect(Collectors.joining(",")));
+        }
+        return settings;
+    }
+
+    private static String nodeName(int node) {
+        return "node-" + node;
+    }
+
+    private static boolean usesZenDiscovery(InstallationDescription installationDescription) {
+        return installationDescription.versionIs1x() || installationDescription.versionIs2x()
+                || installationDescription.versionIs5x() || installationDescription.versionIs6x();
+    }
+}
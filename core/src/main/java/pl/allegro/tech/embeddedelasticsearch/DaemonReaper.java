@@ -0,0 +1,87 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Small JVM watching Elasticsearch daemon. Clients which exited without releasing the daemon are dropped from the
+ * registry, and once no client is attached for longer than idle timeout, the daemon is terminated and its instance
+ * directory removed.
+ */
+class DaemonReaper {
+
+    private static final long CHECK_INTERVAL_IN_MS = 1_000;
+    private static final long TERMINATION_TIMEOUT_IN_MS = 30_000;
+
+    static void launch(DaemonRegistry registry, long idleTimeoutInMs) throws IOException {
+        String javaExecutable = new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath();
+        String classPath;
+        try {
+            classPath = Paths.get(DaemonReaper.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        } catch (URISyntaxException e) {
+            throw new IOException("Unable to locate embedded-elasticsearch classes", e);
+        }
+        new ProcessBuilder(javaExecutable, "-Xmx16m", "-cp", classPath, DaemonReaper.class.getName(),
+                registry.getInstallationDirectory().getAbsolutePath(), String.valueOf(idleTimeoutInMs))
+                .redirectErrorStream(true)
+                .redirectOutput(Redirect.appendTo(registry.getReaperLogFile()))
+                .start();
+    }
+
+    public static void main(String[] args) throws Exception {
+        DaemonRegistry registry = new DaemonRegistry(new File(args[0]));
+        long idleTimeoutInMs = Long.parseLong(args[1]);
+        while (registry.locked(() -> check(registry, idleTimeoutInMs))) {
+            Thread.sleep(CHECK_INTERVAL_IN_MS);
+        }
+    }
+
+    /**
+     * @return whether daemon is still running and should be watched
+     */
+    private static boolean check(DaemonRegistry registry, long idleTimeoutInMs) throws IOException, InterruptedException {
+        Optional<DaemonRegistry.Entry> registered = registry.read();
+        if (!registered.isPresent()) {
+            return false;
+        }
+        DaemonRegistry.Entry entry = registered.get();
+        if (!DaemonRegistry.isProcessAlive(entry.getPid())) {
+            System.out.println("Elasticsearch daemon " + entry.getPid() + " exited");
+            registry.delete();
+            return false;
+        }
+        DaemonRegistry.Entry liveClients = entry.retainClients(DaemonRegistry::isClientAlive);
+        if (liveClients != entry) {
+            registry.write(liveClients);
+        }
+        long idleTimeInMs = System.currentTimeMillis() - liveClients.getLastReleaseTimeInMs();
+        if (liveClients.getClients().isEmpty() && idleTimeInMs > idleTimeoutInMs) {
+            System.out.println("Elasticsearch daemon " + entry.getPid() + " idle for " + idleTimeInMs + " ms, terminating");
+            if (DaemonRegistry.terminate(entry.getPid(), TERMINATION_TIMEOUT_IN_MS)) {
+                deleteRecursively(new File(entry.getInstanceDirectory()).toPath());
+            }
+            registry.delete();
+            return false;
+        }
+        return true;
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Registry of Elasticsearch node running detached from the JVM which started it. It is kept next to the installation,
+ * so JVMs with the same configuration attach to the node instead of starting their own. Every access is guarded by
+ * a file lock, which also serializes JVMs starting the node.
+ * <p>
+ * Registry is read by {@link DaemonReaper} running in a separate JVM with only embedded-elasticsearch classes on class
+ * path, so it must not depend on any library.
+ */
+class DaemonRegistry {
+
+    private static final boolean IS_OS_WINDOWS = System.getProperty("os.name", "").startsWith("Windows");
+
+    private final File installationDirectory;
+    private final File registryFile;
+    private final InterProcessLock lock;
+
+    DaemonRegistry(File installationDirectory) {
+        this.installationDirectory = installationDirectory;
+        this.registryFile = new File(installationDirectory.getParentFile(), installationDirectory.getName() + ".daemon");
+        this.lock = new InterProcessLock(new File(installationDirectory.getParentFile(), installationDirectory.getName() + ".daemon.lock"));
+    }
+
+    File getInstallationDirectory() {
+        return installationDirectory;
+    }
+
+    File getReaperLogFile() {
+        return new File(installationDirectory.getParentFile(), installationDirectory.getName() + ".daemon.log");
+    }
+
+    <T> T locked(InterProcessLock.LockedAction<T> action) throws IOException, InterruptedException {
+        return lock.locked(action);
+    }
+
+    Optional<Entry> read() throws IOException {
+        if (!registryFile.isFile()) {
+            return Optional.empty();
+        }
+        Properties properties = new Properties();
+        try (InputStream input = Files.newInputStream(registryFile.toPath())) {
+            properties.load(input);
+        }
+        try {
+            return Optional.of(Entry.fromProperties(properties));
+        } catch (RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Replaces registry atomically, so a crash while writing never leaves it truncated
+     */
+    void write(Entry entry) throws IOException {
+        File temporaryFile = new File(registryFile.getParentFile(), registryFile.getName() + ".tmp");
+        try (OutputStream output = Files.newOutputStream(temporaryFile.toPath())) {
+            entry.toProperties().store(output, "embedded-elasticsearch daemon");
+        }
+        Files.move(temporaryFile.toPath(), registryFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(registryFile.toPath());
+    }
+
+    /**
+     * @return client identifier unique across processes, starting with PID of current JVM
+     */
+    static String newClientId() {
+        return ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID();
+    }
+
+    static boolean isClientAlive(String clientId) {
+        int separator = clientId.indexOf('@');
+        try {
+            return separator < 0 || isProcessAlive(Long.parseLong(clientId.substring(0, separator)));
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    static boolean isProcessAlive(long pid) {
+        if (pid <= 0) {
+            return false;
+        }
+        File procDirectory = new File("/proc");
+        if (procDirectory.isDirectory()) {
+            return new File(procDirectory, String.valueOf(pid)).exists();
+        }
+        try {
+            Process process = IS_OS_WINDOWS
+                    ? new ProcessBuilder("tasklist", "/NH", "/FI", "PID eq " + pid).redirectErrorStream(true).start()
+                    : new ProcessBuilder("kill", "-0", String.valueOf(pid)).redirectErrorStream(true).start();
+            byte[] output = readFully(process.getInputStream());
+            int exitCode = process.waitFor();
+            return IS_OS_WINDOWS ? new String(output, UTF_8).contains(" " + pid + " ") : exitCode == 0;
+        } catch (IOException e) {
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        }
+    }
+
+    /**
+     * Asks the process to terminate and waits for it to exit
+     *
+     * @return whether process exited within timeout
+     */
+    static boolean terminate(long pid, long timeoutInMs) throws IOException, InterruptedException {
+        ProcessBuilder kill = IS_OS_WINDOWS
+                ? new ProcessBuilder("taskkill", "/f", "/pid", String.valueOf(pid))
+                : new ProcessBuilder("kill", String.valueOf(pid));
+        Process process = kill.redirectErrorStream(true).start();
+        readFully(process.getInputStream());
+        process.waitFor();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMs);
+        while (isProcessAlive(pid)) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(100);
+        }
+        return true;
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        byte[] buffer = new byte[4096];
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    static class Entry {
+        private final String fingerprint;
+        private final long pid;
+        private final int httpPort;
+        private final int transportTcpPort;
+        private final String instanceDirectory;
+        private final List<String> clients;
+        private final long lastReleaseTimeInMs;
+
+        Entry(String fingerprint, long pid, int httpPort, int transportTcpPort, String instanceDirectory, List<String> clients,
+              long lastReleaseTimeInMs) {
+            this.fingerprint = fingerprint;
+            this.pid = pid;
+            this.httpPort = httpPort;
+            this.transportTcpPort = transportTcpPort;
+            this.instanceDirectory = instanceDirectory;
+            this.clients = new ArrayList<>(clients);
+            this.lastReleaseTimeInMs = lastReleaseTimeInMs;
+        }
+
+        String getFingerprint() {
+            return fingerprint;
+        }
+
+        long getPid() {
+            return pid;
+        }
+
+        int getHttpPort() {
+            return httpPort;
+        }
+
+        int getTransportTcpPort() {
+            return transportTcpPort;
+        }
+
+        String getInstanceDirectory() {
+            return instanceDirectory;
+        }
+
+        List<String> getClients() {
+            return clients;
+        }
+
+        long getLastReleaseTimeInMs() {
+            return lastReleaseTimeInMs;
+        }
+
+        Entry withClient(String client) {
+            List<String> extendedClients = new ArrayList<>(clients);
+            extendedClients.add(client);
+            return new Entry(fingerprint, pid, httpPort, transportTcpPort, instanceDirectory, extendedClients, lastReleaseTimeInMs);
+        }
+
+        /**
+         * Keeps only clients matching given predicate, time of release is updated if any client was removed
+         */
+        Entry retainClients(Predicate<String> predicate) {
+            List<String> retainedClients = clients.stream().filter(predicate).collect(Collectors.toList());
+            if (retainedClients.size() == clients.size()) {
+                return this;
+            }
+            return new Entry(fingerprint, pid, httpPort, transportTcpPort, instanceDirectory, retainedClients, System.currentTimeMillis());
+        }
+
+        private Properties toProperties() {
+            Properties properties = new Properties();
+            properties.setProperty("fingerprint", fingerprint);
+            properties.setProperty("pid", String.valueOf(pid));
+            properties.setProperty("httpPort", String.valueOf(httpPort));
+            properties.setProperty("transportTcpPort", String.valueOf(transportTcpPort));
+            properties.setProperty("instanceDirectory", instanceDirectory);
+            properties.setProperty("clients", String.join(",", clients));
+            properties.setProperty("lastReleaseTimeInMs", String.valueOf(lastReleaseTimeInMs));
+            return properties;
+        }
+
+        private static Entry fromProperties(Properties properties) {
+            String clients = properties.getProperty("clients", "");
+            return new Entry(
+                    properties.getProperty("fingerprint"),
+                    Long.parseLong(properties.getProperty("pid")),
+                    Integer.parseInt(properties.getProperty("httpPort")),
+                    Integer.parseInt(properties.getProperty("transportTcpPort")),
+                    properties.getProperty("instanceDirectory"),
+                    clients.isEmpty() ? new ArrayList<>() : Arrays.asList(clients.split(",")),
+                    Long.parseLong(properties.getProperty("lastReleaseTimeInMs")));
+        }
+    }
+}
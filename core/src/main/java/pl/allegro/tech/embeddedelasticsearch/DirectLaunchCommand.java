@@ -0,0 +1,152 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.io.FileUtils.getFile;
+
+/**
+ * Java command line equivalent to the one built by bin/elasticsearch script. It is resolved once per installation and
+ * cached inside installation directory, so subsequent starts spawn Elasticsearch JVM directly.
+ */
+class DirectLaunchCommand {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectLaunchCommand.class);
+    private static final String CACHE_FILE_NAME = ".direct-launch-command";
+    private static final String MAIN_CLASS = "org.elasticsearch.bootstrap.Elasticsearch";
+    private static final String TMPDIR_PLACEHOLDER = "${ES_TMPDIR}";
+    private static final String PATH_CONF_PLACEHOLDER = "${ES_PATH_CONF}";
+    private static final String CACHE_FORMAT_VERSION = "2";
+    private static final Pattern JVM_OPTION_PATTERN = Pattern.compile("^((\\d+)(-)?(\\d+)?:)?(-.*)$");
+    private static final Pattern DISTRIBUTION_PATTERN = Pattern.compile("^(ES_DISTRIBUTION_FLAVOR|ES_DISTRIBUTION_TYPE)=(\\w+)$");
+
+    private final List<String> command;
+
+    private DirectLaunchCommand(List<String> command) {
+        this.command = command;
+    }
+
+    /**
+     * @return command for Elasticsearch 5.x and newer, empty for older versions which still have to be started
+     * with their startup script
+     */
+    static Optional<DirectLaunchCommand> resolve(InstallationDescription installationDescription, File installationDirectory,
+                                                 String esJavaOpts, JavaHomeOption javaHome) throws IOException, InterruptedException {
+        if (installationDescription.versionIs1x() || installationDescription.versionIs2x()) {
+            logger.info("Direct launch is not supported for Elasticsearch " + installationDescription.getVersion() + ", falling back to startup script");
+            return Optional.empty();
+        }
+        JavaRuntime javaRuntime = JavaRuntime.of(javaHome);
+        File cacheFile = new File(installationDirectory, CACHE_FILE_NAME);
+        String cacheKey = InstallationManifest.fingerprint(CACHE_FORMAT_VERSION, javaRuntime.getExecutable(), esJavaOpts);
+        if (cacheFile.isFile()) {
+            List<String> cached = FileUtils.readLines(cacheFile, UTF_8);
+            if (!cached.isEmpty() && cached.get(0).equals(cacheKey)) {
+                return Optional.of(new DirectLaunchCommand(cached.subList(1, cached.size())));
+            }
+        }
+        List<String> command = buildCommand(installationDescription, installationDirectory, esJavaOpts, javaRuntime);
+        List<String> cacheContent = new ArrayList<>();
+        cacheContent.add(cacheKey);
+        cacheContent.addAll(command);
+        File temporaryCacheFile = File.createTempFile(CACHE_FILE_NAME, ".tmp", installationDirectory);
+        FileUtils.writeLines(temporaryCacheFile, UTF_8.name(), cacheContent, "\n");
+        Files.move(temporaryCacheFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Resolved Elasticsearch command line: " + String.join(" ", command));
+        return Optional.of(new DirectLaunchCommand(command));
+    }
+
+    /**
+     * Process runs in instance directory, so relative paths of jvm.options, e.g. logs/gc.log or heap dump path, point
+     * to the instance instead of installation shared by all instances
+     */
+    void configure(ProcessBuilder builder, List<String> arguments, InstanceDirectory instanceDirectory) {
+        String tmpDir = instanceDirectory.getTmpDirectory().getAbsolutePath();
+        builder.environment().put("ES_TMPDIR", tmpDir);
+        builder.directory(instanceDirectory.getRoot());
+        List<String> resolvedCommand = command.stream()
+                .map(argument -> argument.replace(TMPDIR_PLACEHOLDER, tmpDir))
+                .map(argument -> argument.replace(PATH_CONF_PLACEHOLDER, instanceDirectory.getConfigDirectory().getAbsolutePath()))
+                .collect(Collectors.toList());
+        resolvedCommand.addAll(arguments);
+        builder.command(resolvedCommand);
+    }
+
+    private static List<String> buildCommand(InstallationDescription installationDescription, File installationDirectory,
+                                             String esJavaOpts, JavaRuntime javaRuntime) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(javaRuntime.getExecutable());
+        command.addAll(parseJvmOptions(getFile(installationDirectory, "config", "jvm.options"), javaRuntime.getMajorVersion()));
+        Arrays.stream(esJavaOpts.trim().split("\\s+"))
+                .filter(option -> !option.isEmpty())
+                .forEach(command::add);
+        command.add("-Des.path.home=" + installationDirectory.getAbsolutePath());
+        if (!installationDescription.versionIs5x()) {
+            command.add("-Des.path.conf=" + PATH_CONF_PLACEHOLDER);
+            command.addAll(distributionProperties(getFile(installationDirectory, "bin", "elasticsearch-env")));
+        }
+        command.add("-cp");
+        command.add(getFile(installationDirectory, "lib").getAbsolutePath() + File.separator + "*");
+        command.add(MAIN_CLASS);
+        return command;
+    }
+
+    /**
+     * Applies the same rules as Elasticsearch JvmOptionsParser, including version specific options, e.g. 8:-Xloggc:gc.log
+     * or 9-:-Xlog:gc
+     */
+    static List<String> parseJvmOptions(File jvmOptions, int javaMajorVersion) throws IOException {
+        List<String> options = new ArrayList<>();
+        if (!jvmOptions.isFile()) {
+            return options;
+        }
+        for (String line : FileUtils.readLines(jvmOptions, UTF_8)) {
+            Matcher matcher = JVM_OPTION_PATTERN.matcher(line.trim());
+            if (matcher.matches() && appliesTo(matcher, javaMajorVersion)) {
+                options.add(matcher.group(5));
+            }
+        }
+        return options;
+    }
+
+    private static boolean appliesTo(Matcher matcher, int javaMajorVersion) {
+        if (matcher.group(1) == null) {
+            return true;
+        }
+        int lowerBound = Integer.parseInt(matcher.group(2));
+        if (matcher.group(3) == null) {
+            return javaMajorVersion == lowerBound;
+        }
+        int upperBound = matcher.group(4) == null ? Integer.MAX_VALUE : Integer.parseInt(matcher.group(4));
+        return javaMajorVersion >= lowerBound && javaMajorVersion <= upperBound;
+    }
+
+    private static List<String> distributionProperties(File elasticsearchEnv) throws IOException {
+        List<String> properties = new ArrayList<>();
+        if (!elasticsearchEnv.isFile()) {
+            return properties;
+        }
+        for (String line : FileUtils.readLines(elasticsearchEnv, UTF_8)) {
+            Matcher matcher = DISTRIBUTION_PATTERN.matcher(line.trim());
+            if (matcher.matches()) {
+                String property = matcher.group(1).equals("ES_DISTRIBUTION_FLAVOR") ? "es.distribution.flavor" : "es.distribution.type";
+                properties.add("-D" + property + "=" + matcher.group(2));
+            }
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,238 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.function.LongSupplier;
+
+/**
+ * Downloaded packages stored under their SHA-512 digest, with an entry per download URL pointing to its package, so
+ * the same package downloaded from different URLs is kept once. Entries record last access and least recently used
+ * packages are evicted once the cache exceeds its maximum size. Entries are read and modified under a lock shared by
+ * all JVMs using the same download directory. Package returned by lookup is extracted after the lock is released, so
+ * packages accessed recently are never evicted, even if the cache stays above its size until they get older.
+ */
+class DownloadCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(DownloadCache.class);
+    private static final String PACKAGES_DIRECTORY = "sha512";
+    private static final String DOWNLOADS_DIRECTORY = "downloads";
+    private static final String ENTRY_SUFFIX = ".entry";
+    private static final int KEY_LENGTH = 32;
+    static final long RECENT_ACCESS_IN_MS = 10 * 60 * 1000;
+
+    private final File directory;
+    private final long maxSizeInBytes;
+    private final LongSupplier currentTimeInMs;
+    private final InterProcessLock lock;
+
+    DownloadCache(File directory, long maxSizeInBytes) {
+        this(directory, maxSizeInBytes, System::currentTimeMillis);
+    }
+
+    DownloadCache(File directory, long maxSizeInBytes, LongSupplier currentTimeInMs) {
+        this.directory = directory;
+        this.maxSizeInBytes = maxSizeInBytes;
+        this.currentTimeInMs = currentTimeInMs;
+        this.lock = new InterProcessLock(new File(directory, "cache.lock"));
+    }
+
+    /**
+     * Directory where package from given URL is downloaded before it is stored in the cache
+     */
+    File downloadDirectory(URL url) {
+        return new File(new File(directory, DOWNLOADS_DIRECTORY), keyOf(url));
+    }
+
+    /**
+     * Lock held while package from given URL is downloaded
+     */
+    InterProcessLock downloadLock(URL url) {
+        return new InterProcessLock(new File(new File(directory, DOWNLOADS_DIRECTORY), keyOf(url) + ".lock"));
+    }
+
+    /**
+     * @return cached package downloaded from given URL, empty if it was not downloaded, was evicted or does not match
+     * expected checksum
+     */
+    Optional<Path> lookup(URL url, Optional<String> expectedChecksum) throws IOException, InterruptedException {
+        return lock.locked(() -> {
+            Optional<Entry> entry = readEntry(entryFile(keyOf(url)));
+            if (!entry.isPresent() || !packageFile(entry.get()).isFile()) {
+                return Optional.empty();
+            }
+            if (expectedChecksum.isPresent() && !expectedChecksum.get().equals(entry.get().checksum)) {
+                return Optional.empty();
+            }
+            writeEntry(entry.get().accessedAt(currentTimeInMs.getAsLong()));
+            return Optional.of(packageFile(entry.get()).toPath());
+        });
+    }
+
+    /**
+     * Moves downloaded package into the cache and evicts least recently used packages if the cache became too big
+     *
+     * @return location of package in the cache
+     */
+    Path store(URL url, File downloaded, String checksum) throws IOException, InterruptedException {
+        return lock.locked(() -> {
+            Entry entry = new Entry(keyOf(url), url.toString(), checksum, downloaded.getName(), currentTimeInMs.getAsLong());
+            File packageFile = packageFile(entry);
+            if (packageFile.isFile()) {
+                Files.delete(downloaded.toPath());
+            } else {
+                FileUtils.forceMkdir(packageFile.getParentFile());
+                Files.move(downloaded.toPath(), packageFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            writeEntry(entry);
+            evict(checksum);
+            return packageFile.toPath();
+        });
+    }
+
+    /**
+     * Package which was just stored or was accessed recently is never evicted, even if it alone exceeds maximum size
+     */
+    private void evict(String retainedChecksum) throws IOException {
+        long recentAccessTimeInMs = currentTimeInMs.getAsLong() - RECENT_ACCESS_IN_MS;
+        Map<String, Long> lastAccessByChecksum = new HashMap<>();
+        List<Entry> entries = readEntries();
+        for (Entry entry : entries) {
+            lastAccessByChecksum.merge(entry.checksum, entry.lastAccessTimeInMs, Math::max);
+        }
+        File[] packageDirectories = new File(directory, PACKAGES_DIRECTORY).listFiles(File::isDirectory);
+        if (packageDirectories == null) {
+            return;
+        }
+        long totalSize = 0;
+        for (File packageDirectory : packageDirectories) {
+            totalSize += FileUtils.sizeOfDirectory(packageDirectory);
+        }
+        List<File> candidates = new ArrayList<>();
+        for (File packageDirectory : packageDirectories) {
+            long lastAccessTimeInMs = lastAccessByChecksum.getOrDefault(packageDirectory.getName(), 0L);
+            if (!packageDirectory.getName().equals(retainedChecksum) && lastAccessTimeInMs < recentAccessTimeInMs) {
+                candidates.add(packageDirectory);
+            }
+        }
+        candidates.sort(Comparator.comparing(packageDirectory -> lastAccessByChecksum.getOrDefault(packageDirectory.getName(), 0L)));
+        for (File packageDirectory : candidates) {
+            if (totalSize <= maxSizeInBytes) {
+                return;
+            }
+            long size = FileUtils.sizeOfDirectory(packageDirectory);
+            try {
+                FileUtils.deleteDirectory(packageDirectory);
+            } catch (IOException e) {
+                logger.warn("Unable to evict cached package {}, it is probably in use", packageDirectory, e);
+                continue;
+            }
+            logger.info("Evicted least recently used package {} from download cache", packageDirectory);
+            totalSize -= size;
+            for (Entry entry : entries) {
+                if (entry.checksum.equals(packageDirectory.getName())) {
+                    Files.deleteIfExists(entryFile(entry.key).toPath());
+                }
+            }
+        }
+    }
+
+    private static String keyOf(URL url) {
+        return InstallationManifest.fingerprint(url.toString()).substring(0, KEY_LENGTH);
+    }
+
+    private File packageFile(Entry entry) {
+        return new File(new File(new File(directory, PACKAGES_DIRECTORY), entry.checksum), entry.fileName);
+    }
+
+    private File entryFile(String key) {
+        return new File(directory, key + ENTRY_SUFFIX);
+    }
+
+    private List<Entry> readEntries() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        File[] entryFiles = directory.listFiles(file -> file.getName().endsWith(ENTRY_SUFFIX));
+        if (entryFiles != null) {
+            for (File entryFile : entryFiles) {
+                readEntry(entryFile).ifPresent(entries::add);
+            }
+        }
+        return entries;
+    }
+
+    private Optional<Entry> readEntry(File entryFile) throws IOException {
+        if (!entryFile.isFile()) {
+            return Optional.empty();
+        }
+        Properties properties = new Properties();
+        try (InputStream input = Files.newInputStream(entryFile.toPath())) {
+            properties.load(input);
+        }
+        try {
+            return Optional.of(new Entry(
+                    entryFile.getName().substring(0, entryFile.getName().length() - ENTRY_SUFFIX.length()),
+                    properties.getProperty("url"),
+                    properties.getProperty("checksum"),
+                    properties.getProperty("fileName"),
+                    Long.parseLong(properties.getProperty("lastAccessTimeInMs"))));
+        } catch (RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Replaces entry atomically, so a crash while writing never leaves it truncated
+     */
+    private void writeEntry(Entry entry) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("url", entry.url);
+        properties.setProperty("checksum", entry.checksum);
+        properties.setProperty("fileName", entry.fileName);
+        properties.setProperty("lastAccessTimeInMs", String.valueOf(entry.lastAccessTimeInMs));
+        File entryFile = entryFile(entry.key);
+        File temporaryFile = new File(directory, entryFile.getName() + ".tmp");
+        try (OutputStream output = Files.newOutputStream(temporaryFile.toPath())) {
+            properties.store(output, "embedded-elasticsearch download cache entry");
+        }
+        Files.move(temporaryFile.toPath(), entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class Entry {
+        private final String key;
+        private final String url;
+        private final String checksum;
+        private final String fileName;
+        private final long lastAccessTimeInMs;
+
+        Entry(String key, String url, String checksum, String fileName, long lastAccessTimeInMs) {
+            if (url == null || checksum == null || fileName == null) {
+                throw new IllegalArgumentException("Incomplete download cache entry " + key);
+            }
+            this.key = key;
+            this.url = url;
+            this.checksum = checksum;
+            this.fileName = fileName;
+            this.lastAccessTimeInMs = lastAccessTimeInMs;
+        }
+
+        Entry accessedAt(long timeInMs) {
+            return new Entry(key, url, checksum, fileName, timeInMs);
+        }
+    }
+}
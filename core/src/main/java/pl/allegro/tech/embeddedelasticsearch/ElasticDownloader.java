@@ -2,34 +2,41 @@ package pl.allegro.tech.embeddedelasticsearch;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.lang3.RandomStringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.Proxy;
 import java.net.URL;
-import java.net.URLConnection;
 import java.nio.file.Path;
-import java.util.concurrent.TimeUnit;
+import java.util.Optional;
 
 import static org.apache.commons.io.FileUtils.forceMkdir;
 import static org.apache.commons.io.FileUtils.getFile;
 
 class ElasticDownloader {
     private static final Logger logger = LoggerFactory.getLogger(ElasticDownloader.class);
-    private static final String ELS_PACKAGE_STATUS_FILE_SUFFIX = "-downloaded";
+    private static final String DEFAULT_PACKAGE_FILE_NAME = "elasticsearch-package";
 
     private final InstallationDescription installationDescription;
+    private final StartupReport startupReport;
 
-    ElasticDownloader(InstallationDescription installationDescription) {
+    ElasticDownloader(InstallationDescription installationDescription, StartupReport startupReport) {
         this.installationDescription = installationDescription;
+        this.startupReport = startupReport;
     }
 
     Path download() throws IOException, InterruptedException {
+        return download(input -> {
+        });
+    }
+
+    /**
+     * @param whileDownloading reads package while it is being downloaded, it is not called when package is cached
+     */
+    Path download(SegmentedDownload.StreamConsumer whileDownloading) throws IOException, InterruptedException {
         prepareDirectories();
-        return downloadElastic();
+        return startupReport.measure(StartupReport.Phase.DOWNLOAD, () -> downloadElastic(whileDownloading));
     }
 
     private void prepareDirectories() throws IOException {
@@ -40,73 +47,66 @@ class ElasticDownloader {
         return getFile(installationDescription.getDownloadDirectory());
     }
 
-    private Path downloadElastic() throws IOException {
+    /**
+     * Downloads are coordinated with a file lock held for the whole download, so threads and JVMs sharing download
+     * directory wait until the owner finishes instead of downloading the same file. Lock of a process which died is
+     * released by the operating system and the next waiter resumes its partial download.
+     */
+    private Path downloadElastic(SegmentedDownload.StreamConsumer whileDownloading) throws IOException, InterruptedException {
         URL source = installationDescription.getDownloadUrl();
-        File target = new File(getDownloadDirectory(), constructLocalFileName(source));
-        File statusFile = new File(target.getParentFile(), target.getName() + ELS_PACKAGE_STATUS_FILE_SUFFIX);
-        removeBrokenDownload(target, statusFile);
-        if (!target.exists()) {
-            proceedWithDownload(source, target, statusFile, installationDescription.getDownloaderConnectionTimeoutInMs(), installationDescription.getDownloaderReadTimeoutInMs());
-        } else if (!statusFile.exists() && maybeDownloading(target)) {
-            waitForDownload(target, statusFile);
-        } else if (!statusFile.exists()) {
-            throw new IOException("Broken download. File '" + target + "' exits but status '" + statusFile + "' file wash not created");
-        } else {
+        DownloadCache cache = new DownloadCache(getDownloadDirectory(), installationDescription.getDownloadCacheMaxSizeInBytes());
+        Optional<Path> cached = cache.lookup(source, expectedChecksum());
+        if (cached.isPresent()) {
             logger.info("Download skipped");
+            startupReport.skip(StartupReport.Phase.DOWNLOAD);
+            return cached.get();
         }
-        return target.toPath();
+        return cache.downloadLock(source).locked(() -> {
+            Optional<Path> downloadedMeanwhile = cache.lookup(source, expectedChecksum());
+            if (downloadedMeanwhile.isPresent()) {
+                logger.info("File was downloaded by another thread/jvm. Download skipped");
+                startupReport.skip(StartupReport.Phase.DOWNLOAD);
+                return downloadedMeanwhile.get();
+            }
+            File target = new File(cache.downloadDirectory(source), constructLocalFileName(source));
+            forceMkdir(target.getParentFile());
+            removeBrokenDownload(target);
+            String checksum = proceedWithDownload(source, target, installationDescription.getDownloaderConnectionTimeoutInMs(), installationDescription.getDownloaderReadTimeoutInMs(), whileDownloading);
+            return cache.store(source, target, checksum);
+        });
+    }
+
+    private Optional<String> expectedChecksum() {
+        return Optional.ofNullable(installationDescription.getDownloadChecksum()).map(PackageChecksum::normalize);
     }
 
+    /**
+     * Download directory is already unique for the URL, so URL without path gets a fixed name
+     */
     private String constructLocalFileName(URL url) {
-        String path = url.getPath();
-        if (path.isEmpty()) {
-            return RandomStringUtils.randomAlphanumeric(10);
-        }
-        return FilenameUtils.getName(path);
+        String name = FilenameUtils.getName(url.getPath());
+        return name.isEmpty() ? DEFAULT_PACKAGE_FILE_NAME : name;
     }
 
-    private void removeBrokenDownload(File target, File statusFile) throws IOException {
-        if (target.exists() && !statusFile.exists() && !maybeDownloading(target)) {
+    private void removeBrokenDownload(File target) throws IOException {
+        // partial download is not removed, it is resumed by SegmentedDownload
+        if (target.exists()) {
             logger.info("Removing broken download file {}", target);
             FileUtils.forceDelete(target);
         }
     }
 
-    private boolean maybeDownloading(File target) {
-        // Check based on assumption that if other thread or jvm is currently downloading file on disk should be modified
-        // at least every 10 seconds as new data is being downloaded. This will not work on file system
-        // without support for lastmodified field or on very slow internet connection
-        return System.currentTimeMillis() - target.lastModified() < TimeUnit.SECONDS.toMillis(10L);
-    }
-
-    private void proceedWithDownload(URL source, File target, File statusFile, int connectionTimeout, int readTimeout) throws IOException {
+    private String proceedWithDownload(URL source, File target, int connectionTimeout, int readTimeout,
+                                       SegmentedDownload.StreamConsumer whileDownloading) throws IOException, InterruptedException {
         logger.info("Downloading {} to {} ...", source, target);
-        copyURLToFile(source, target, connectionTimeout, readTimeout, installationDescription.getDownloadProxy());
-        FileUtils.touch(statusFile);
-        logger.info("Download complete");
-    }
-
-    private void copyURLToFile(URL source,
-                               File destination,
-                               int connectionTimeout,
-                               int readTimeout,
-                               Proxy proxy) throws IOException {
-        final URLConnection connection = proxy != null ? source.openConnection(proxy) : source.openConnection();
-        connection.setConnectTimeout(connectionTimeout);
-        connection.setReadTimeout(readTimeout);
-        FileUtils.copyInputStreamToFile(connection.getInputStream(), destination);
-    }
-
-    private void waitForDownload(File target, File statusFile) throws IOException {
-        boolean downloaded;
-        do {
-            logger.info("File {} (size={}) is probably being downloaded by another thread/jvm. Waiting ...", target, target.length());
-            downloaded = FileUtils.waitFor(statusFile, 30);
-        } while (!downloaded && maybeDownloading(target));
-        if (!downloaded) {
-            throw new IOException("Broken download. Another party probably failed to download " + target);
+        Optional<String> expectedChecksum = expectedChecksum();
+        if (!expectedChecksum.isPresent()) {
+            expectedChecksum = PackageChecksum.published(source, connectionTimeout, readTimeout, installationDescription.getDownloadProxy());
         }
-        logger.info("File was downloaded by another thread/jvm. Download skipped");
+        String checksum = new SegmentedDownload(source, target, installationDescription.getDownloaderConnections(), connectionTimeout,
+                readTimeout, installationDescription.getDownloadProxy(), LifecycleManager.get().executor()).download(expectedChecksum, whileDownloading);
+        logger.info("Download complete{}", expectedChecksum.isPresent() ? ", checksum verified" : "");
+        return checksum;
     }
 
 }
@@ -0,0 +1,40 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed size ring buffer keeping most recent lines of Elasticsearch output
+ */
+class ElasticOutputBuffer {
+
+    private final String[] lines;
+    private int next = 0;
+    private boolean wrapped = false;
+
+    ElasticOutputBuffer(int capacity) {
+        this.lines = new String[capacity];
+    }
+
+    synchronized void append(String line) {
+        if (lines.length == 0) {
+            return;
+        }
+        lines[next] = line;
+        next = (next + 1) % lines.length;
+        wrapped = wrapped || next == 0;
+    }
+
+    synchronized List<String> lines() {
+        List<String> result = new ArrayList<>(lines.length);
+        if (wrapped) {
+            for (int i = next; i < lines.length; i++) {
+                result.add(lines[i]);
+            }
+        }
+        for (int i = 0; i < next; i++) {
+            result.add(lines[i]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,57 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drains Elasticsearch output into a ring buffer and forwards selected lines to logger
+ */
+class ElasticOutputPump {
+
+    // Elasticsearch output keeps being logged under the logger it was always logged under
+    private static final Logger logger = LoggerFactory.getLogger(ElasticServer.class);
+
+    private final OutputForwarding forwarding;
+    private final ElasticOutputBuffer buffer;
+    private boolean forwardingRecord = false;
+
+    ElasticOutputPump(OutputForwarding forwarding, int bufferSize) {
+        this.forwarding = forwarding;
+        this.buffer = new ElasticOutputBuffer(bufferSize);
+    }
+
+    void accept(String line) {
+        buffer.append(line);
+        switch (forwarding) {
+            case ALL:
+                logger.info(line);
+                break;
+            case WARNINGS:
+                forwardWarning(line);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Lines starting with '[' begin new log record, other lines (e.g. stack traces) belong to the previous one
+     */
+    private void forwardWarning(String line) {
+        if (line.startsWith("[")) {
+            forwardingRecord = line.contains("[WARN") || line.contains("[ERROR") || line.contains("[FATAL");
+        }
+        if (forwardingRecord) {
+            logger.warn(line);
+        }
+    }
+
+    /**
+     * Logs buffered output unless all of it was already forwarded
+     */
+    void dump() {
+        if (forwarding != OutputForwarding.ALL) {
+            logger.error("Recent Elasticsearch output:\n" + String.join("\n", buffer.lines()));
+        }
+    }
+}
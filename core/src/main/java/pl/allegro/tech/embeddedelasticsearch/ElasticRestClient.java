@@ -14,10 +14,12 @@ import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicHeader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import pl.allegro.tech.embeddedelasticsearch.StartupReport.Phase;
 
 import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.StringJoiner;
 import java.util.function.Consumer;
@@ -40,12 +42,19 @@ class ElasticRestClient {
     private final HttpClient httpClient;
     private final IndicesDescription indicesDescription;
     private final TemplatesDescription templatesDescription;
+    private final StartupReport startupReport;
+    private final int expectedNodes;
+    private final Map<String, Object> defaultIndexSettings;
 
-    ElasticRestClient(int elasticsearchHttpPort, HttpClient httpClient, IndicesDescription indicesDescription, TemplatesDescription templatesDescription) {
+    ElasticRestClient(int elasticsearchHttpPort, HttpClient httpClient, IndicesDescription indicesDescription, TemplatesDescription templatesDescription,
+                      StartupReport startupReport, int expectedNodes, Map<String, Object> defaultIndexSettings) {
         this.elasticsearchHttpPort = elasticsearchHttpPort;
         this.httpClient = httpClient;
         this.indicesDescription = indicesDescription;
         this.templatesDescription = templatesDescription;
+        this.startupReport = startupReport;
+        this.expectedNodes = expectedNodes;
+        this.defaultIndexSettings = defaultIndexSettings;
     }
 
     void createIndices() {
@@ -54,23 +63,30 @@ class ElasticRestClient {
     }
 
     void createIndex(String indexName) {
-        if (!indexExists(indexName)) {
+        boolean created = startupReport.measureQuietly(Phase.INDICES_CREATION, () -> {
+            if (indexExists(indexName)) {
+                return false;
+            }
             HttpPut request = new HttpPut(url("/" + indexName));
-            indicesDescription
-                    .getIndexSettings(indexName)
-                    .ifPresent(indexSettings -> setIndexSettingsAsEntity(request, indexSettings));
+            Optional<IndexSettings> indexSettings = indicesDescription.getIndexSettings(indexName);
+            if (indexSettings.isPresent() || !defaultIndexSettings.isEmpty()) {
+                setIndexSettingsAsEntity(request, indexSettings.orElseGet(() -> IndexSettings.builder().build()));
+            }
             httpClient.execute(request, response -> {
                 if (response.getStatusLine().getStatusCode() != 200) {
                     String responseBody = readBodySafely(response);
                     throw new RuntimeException("Call to elasticsearch resulted in error:\n" + responseBody);
                 }
             });
+            return true;
+        });
+        if (created) {
             waitForClusterYellow();
         }
     }
 
     private void setIndexSettingsAsEntity(HttpPut request, IndexSettings indexSettings) {
-        request.setEntity(new StringEntity(indexSettings.toJson().toString(), APPLICATION_JSON));
+        request.setEntity(new StringEntity(indexSettings.toJson(defaultIndexSettings).toString(), APPLICATION_JSON));
     }
 
     private boolean indexExists(String indexName) {
@@ -83,7 +99,10 @@ class ElasticRestClient {
     }
 
     void createTemplate(String templateName) {
-        if (!templateExists(templateName)) {
+        boolean created = startupReport.measureQuietly(Phase.TEMPLATES_CREATION, () -> {
+            if (templateExists(templateName)) {
+                return false;
+            }
             HttpPut request = new HttpPut(url("/_template/" + templateName));
             request.setEntity(new StringEntity(templatesDescription.getTemplateSettings(templateName), APPLICATION_JSON));
             httpClient.execute(request, response -> {
@@ -92,6 +111,9 @@ class ElasticRestClient {
                     throw new RuntimeException("Call to elasticsearch resulted in error:\n" + responseBody);
                 }
             });
+            return true;
+        });
+        if (created) {
             waitForClusterYellow();
         }
     }
@@ -117,8 +139,22 @@ class ElasticRestClient {
     }
 
     private void waitForClusterYellow() {
-        HttpGet request = new HttpGet(url("/_cluster/health?wait_for_status=yellow&timeout=60s"));
-        httpClient.execute(request, (Consumer<CloseableHttpResponse>) response -> assertOk(response, "Cluster does not reached yellow status in specified timeout"));
+        startupReport.measureVoid(Phase.CLUSTER_YELLOW, () -> waitForClusterStatus("yellow"));
+    }
+
+    /**
+     * Waits until all shards, including replicas, are allocated. Unlike yellow, green status can be reached only
+     * when cluster has enough nodes to host replicas
+     */
+    void waitForClusterGreen() {
+        waitForClusterStatus("green");
+    }
+
+    private void waitForClusterStatus(String status) {
+        String nodesCondition = expectedNodes > 1 ? "&wait_for_nodes=" + expectedNodes : "";
+        HttpGet request = new HttpGet(url("/_cluster/health?wait_for_status=" + status + nodesCondition + "&timeout=60s"));
+        httpClient.execute(request, (Consumer<CloseableHttpResponse>) response ->
+                assertOk(response, "Cluster does not reached " + status + " status in specified timeout"));
     }
 
     void deleteIndices() {
@@ -135,6 +171,29 @@ class ElasticRestClient {
         }
     }
 
+    /**
+     * Deletes indices created outside of indices description, e.g. by tests. Hidden indices (starting with a dot) are
+     * left untouched
+     */
+    void deleteUnmanagedIndices() {
+        listIndices().stream()
+                .filter(indexName -> !indexName.startsWith("."))
+                .filter(indexName -> !indicesDescription.getIndicesNames().contains(indexName))
+                .forEach(this::deleteIndex);
+    }
+
+    private List<String> listIndices() {
+        HttpGet request = new HttpGet(url("/_cat/indices?h=index"));
+        String body = httpClient.execute(request, response -> {
+            assertOk(response, "Listing indices resulted in error");
+            return readBodySafely(response);
+        });
+        return Stream.of(body.split("\n"))
+                .map(String::trim)
+                .filter(indexName -> !indexName.isEmpty())
+                .collect(toList());
+    }
+
     void bulkIndex(Collection<IndexRequest> indexRequests) {
         String bulkRequestBody = indexRequests.stream()
                 .flatMap(request ->
@@ -180,6 +239,11 @@ class ElasticRestClient {
         }
     }
 
+    void flush() {
+        HttpPost request = new HttpPost(url("/_flush"));
+        httpClient.execute(request, (Consumer<CloseableHttpResponse>) response -> assertOk(response, "Flush request resulted in error"));
+    }
+
     private void performBulkRequest(String requestUrl, String bulkRequestBody) {
         HttpPost request = new HttpPost(requestUrl);
         request.setHeader(new BasicHeader(HttpHeaders.CONTENT_TYPE, "application/json"));
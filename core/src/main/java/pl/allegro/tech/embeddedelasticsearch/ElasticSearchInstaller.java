@@ -1,20 +1,26 @@
 package pl.allegro.tech.embeddedelasticsearch;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
 import org.rauschig.jarchivelib.Archiver;
 import org.rauschig.jarchivelib.ArchiverFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import pl.allegro.tech.embeddedelasticsearch.InstallationDescription.Plugin;
+import pl.allegro.tech.embeddedelasticsearch.StartupReport.Phase;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.lang.ProcessBuilder.Redirect;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -27,60 +33,154 @@ class ElasticSearchInstaller {
 
     private static final Logger logger = LoggerFactory.getLogger(ElasticSearchInstaller.class);
     private static final String ELS_PACKAGE_PREFIX = "elasticsearch-";
+    private static final int FINGERPRINT_LENGTH = 12;
 
-    private final InstanceSettings instanceSettings;
     private final InstallationDescription installationDescription;
     private final ElasticDownloader elasticDownloader;
+    private final StartupReport startupReport;
 
-    ElasticSearchInstaller(InstanceSettings instanceSettings, InstallationDescription installationDescription) {
-        this.instanceSettings = instanceSettings;
+    ElasticSearchInstaller(InstallationDescription installationDescription, StartupReport startupReport) {
         this.installationDescription = installationDescription;
-        this.elasticDownloader = new ElasticDownloader(installationDescription);
+        this.elasticDownloader = new ElasticDownloader(installationDescription, startupReport);
+        this.startupReport = startupReport;
     }
 
     File getExecutableFile() {
         return fileRelativeToInstallationDir("bin", systemDependentExtension("elasticsearch"));
     }
 
+    /**
+     * Installation directory is keyed by version, download url and plugins, so instances configured differently never
+     * reinstall distribution another instance runs from
+     */
     File getInstallationDirectory() {
-        return getFile(installationDescription.getInstallationDirectory(), ELS_PACKAGE_PREFIX + installationDescription.getVersion());
+        return getFile(installationDescription.getInstallationDirectory(),
+                ELS_PACKAGE_PREFIX + installationDescription.getVersion() + "-" + installationFingerprint().substring(0, FINGERPRINT_LENGTH));
     }
 
+    /**
+     * Installs distribution with plugins, unless the same installation is already present. Installation is guarded by
+     * a lock, so threads and processes installing the same distribution wait for each other instead of overwriting it.
+     * Instance settings are not part of installation, they are applied to {@link InstanceDirectory}
+     */
     void install() throws IOException, InterruptedException {
-        Path downloadedTo = elasticDownloader.download();
-        prepareDirectories();
-        installElastic(downloadedTo);
-        configureElastic();
-        installPlugins();
+        File installationDirectory = getInstallationDirectory();
+        InterProcessLock installationLock = new InterProcessLock(
+                new File(installationDirectory.getParentFile(), installationDirectory.getName() + ".install.lock"));
+        installationLock.locked(() -> {
+            InstallationManifest manifest = new InstallationManifest(installationDirectory);
+            String fingerprint = installationFingerprint();
+            if (manifest.matches(fingerprint)) {
+                logger.info("Reusing Elasticsearch installed in " + installationDirectory);
+                startupReport.skip(Phase.DOWNLOAD, Phase.UNZIP, Phase.PLUGINS_INSTALLATION);
+                return null;
+            }
+            File stagingDirectory = prepareStagingDirectory();
+            AtomicBoolean extractedWhileDownloading = new AtomicBoolean();
+            Path downloadedTo = null;
+            try {
+                downloadedTo = elasticDownloader.download(input -> {
+                    if (isPipelinedInstallationSupported()) {
+                        extractWhileDownloading(input, stagingDirectory);
+                        extractedWhileDownloading.set(true);
+                    }
+                });
+            } finally {
+                if (downloadedTo == null) {
+                    FileUtils.deleteQuietly(stagingDirectory);
+                }
+            }
+            if (extractedWhileDownloading.get()) {
+                startupReport.skip(Phase.UNZIP);
+                moveIntoPlace(stagingDirectory);
+            } else {
+                Path downloadedPackage = downloadedTo;
+                startupReport.measure(Phase.UNZIP, () -> {
+                    installElastic(downloadedPackage, stagingDirectory);
+                    return null;
+                });
+            }
+            startupReport.measure(Phase.PLUGINS_INSTALLATION, () -> {
+                installPlugins();
+                return null;
+            });
+            manifest.write(fingerprint);
+            return null;
+        });
+    }
+
+    String installationFingerprint() {
+        return InstallationManifest.fingerprint(
+                installationDescription.getVersion(),
+                installationDescription.getDownloadUrl().toString(),
+                installationDescription.getPlugins().stream().map(Plugin::getExpression).collect(Collectors.joining(",")));
     }
 
-    private void prepareDirectories() throws IOException {
-        forceMkdir(getInstallationDirectory());
+    /**
+     * Directory for instances of this installation, each in its own subdirectory
+     */
+    File getInstancesDirectory() {
+        return getFile(installationDescription.getInstallationDirectory(), "instances");
     }
 
-    private void installElastic(Path downloadedTo) throws IOException {
-        File destination = getInstallationDirectory().getParentFile();
-        FileUtils.forceDelete(getInstallationDirectory());
-        logger.info("Installing Elasticsearch" + " into " + destination + "...");
+    private void installElastic(Path downloadedTo, File stagingDirectory) throws IOException {
+        logger.info("Installing Elasticsearch" + " into " + getInstallationDirectory() + "...");
         try {
-            unzip(downloadedTo, destination);
+            unzip(downloadedTo, stagingDirectory);
+            moveIntoPlace(stagingDirectory);
             logger.info("Done");
         } catch (IOException e) {
             logger.info("Failure : " + e);
+            FileUtils.deleteQuietly(stagingDirectory);
             throw new EmbeddedElasticsearchStartupException(e);
         }
     }
 
+    private boolean isPipelinedInstallationSupported() {
+        return installationDescription.isPipelinedInstallation() && ArchiveStreamExtractor.supports(packageFileName());
+    }
+
+    /**
+     * Extracts package being downloaded, its time is included in download phase. Extracted package is moved into place
+     * only once the download completed and its checksum was verified
+     */
+    private void extractWhileDownloading(InputStream downloading, File stagingDirectory) throws IOException {
+        logger.info("Extracting Elasticsearch into " + stagingDirectory + " while it is downloaded...");
+        ArchiveStreamExtractor.extract(downloading, packageFileName(), stagingDirectory);
+        logger.info("Done");
+    }
+
+    /**
+     * Package is extracted next to installation directory and moved into place, because its top level directory is
+     * named after the version only
+     */
+    private File prepareStagingDirectory() throws IOException {
+        File stagingDirectory = new File(getInstallationDirectory().getParentFile(), getInstallationDirectory().getName() + ".extracting");
+        FileUtils.deleteDirectory(stagingDirectory);
+        forceMkdir(stagingDirectory);
+        return stagingDirectory;
+    }
+
+    private void moveIntoPlace(File stagingDirectory) throws IOException {
+        File[] extracted = stagingDirectory.listFiles(File::isDirectory);
+        if (extracted == null || extracted.length != 1) {
+            throw new IOException("Elasticsearch package should contain single top level directory, found "
+                    + (extracted == null ? 0 : extracted.length) + " in " + packageFileName());
+        }
+        FileUtils.deleteDirectory(getInstallationDirectory());
+        Files.move(extracted[0].toPath(), getInstallationDirectory().toPath(), StandardCopyOption.ATOMIC_MOVE);
+        FileUtils.deleteDirectory(stagingDirectory);
+    }
+
+    private String packageFileName() {
+        return FilenameUtils.getName(installationDescription.getDownloadUrl().getPath());
+    }
+
     private void unzip(Path downloadedTo, File destination) throws IOException {
         Archiver archiver = ArchiverFactory.createArchiver("zip");
         archiver.extract(downloadedTo.toFile(), destination);
     }
 
-    private void configureElastic() throws IOException {
-        File elasticsearchYml = getFile(getInstallationDirectory(), "config", "elasticsearch.yml");
-        FileUtils.writeStringToFile(elasticsearchYml, instanceSettings.toYaml(), UTF_8);
-    }
-
     private void installPlugins() throws IOException, InterruptedException {
         File pluginManager = pluginManagerExecutable();
         Set<String> alreadyInstalledPlugins = getAlreadyInstalledPlugins();
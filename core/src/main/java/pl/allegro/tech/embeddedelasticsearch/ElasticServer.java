@@ -1,5 +1,6 @@
 package pl.allegro.tech.embeddedelasticsearch;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.SystemUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,45 +9,77 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.lang.ProcessBuilder.Redirect;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
-import static org.apache.commons.io.FileUtils.deleteDirectory;
-import static org.apache.commons.lang3.Validate.isTrue;
 
 class ElasticServer {
 
     private static final Logger logger = LoggerFactory.getLogger(ElasticServer.class);
 
     private final String esJavaOpts;
-    private final File installationDirectory;
+    private final InstanceDirectory instanceDirectory;
     private final File executableFile;
     private final long startTimeoutInMs;
-    private final boolean cleanInstallationDirectoryOnStop;
+    private final boolean cleanInstanceDirectoryOnStop;
+    private final Optional<DirectLaunchCommand> directLaunchCommand;
+    private final ReadinessStrategy readinessStrategy;
+    private final List<String> startupArguments;
+    private final ElasticOutputPump outputPump;
+    private final boolean detached;
+    private final long stopTimeoutInMs;
+    private final boolean backgroundCleanup;
 
-    private boolean started;
-    private final Object startedLock = new Object();
+    private volatile CompletableFuture<Void> ready;
 
-    private Process elastic;
-    private Thread ownerThread;
+    private volatile Process elastic;
+    private volatile Future<?> outputHandler;
+    private final AtomicReference<LifecycleManager.Registration> registration = new AtomicReference<>();
     private volatile int pid = -1;
     private volatile int httpPort = -1;
     private volatile int transportTcpPort = -1;
     private JavaHomeOption javaHome;
 
-    ElasticServer(String esJavaOpts, File installationDirectory, File executableFile, long startTimeoutInMs, boolean cleanInstallationDirectoryOnStop, JavaHomeOption javaHome) {
+    ElasticServer(String esJavaOpts, InstanceDirectory instanceDirectory, File executableFile, long startTimeoutInMs, boolean cleanInstanceDirectoryOnStop, JavaHomeOption javaHome,
+                  Optional<DirectLaunchCommand> directLaunchCommand, ReadinessStrategy readinessStrategy, List<String> startupArguments, int httpPort,
+                  int transportTcpPort, OutputForwarding outputForwarding, int outputBufferSize, boolean detached, long stopTimeoutInMs,
+                  boolean backgroundCleanup) {
         this.esJavaOpts = esJavaOpts;
-        this.installationDirectory = installationDirectory;
+        this.instanceDirectory = instanceDirectory;
         this.executableFile = executableFile;
         this.startTimeoutInMs = startTimeoutInMs;
-        this.cleanInstallationDirectoryOnStop = cleanInstallationDirectoryOnStop;
+        this.cleanInstanceDirectoryOnStop = cleanInstanceDirectoryOnStop;
         this.javaHome = javaHome;
+        this.directLaunchCommand = directLaunchCommand;
+        this.readinessStrategy = readinessStrategy;
+        this.startupArguments = startupArguments;
+        this.httpPort = httpPort;
+        this.transportTcpPort = transportTcpPort;
+        this.detached = detached;
+        this.stopTimeoutInMs = stopTimeoutInMs;
+        this.backgroundCleanup = backgroundCleanup;
+        this.outputPump = new ElasticOutputPump(outputForwarding, outputBufferSize);
     }
 
     void start() throws InterruptedException {
-        startElasticProcess();
-        installExitHook();
+        ready = new CompletableFuture<>();
+        if (detached) {
+            startDetachedElasticProcess();
+        } else {
+            startElasticProcess();
+            registerForExit();
+        }
         waitForElasticToStart();
     }
 
@@ -59,40 +92,119 @@ class ElasticServer {
         }
     }
 
+    /**
+     * Stops Elasticsearch process leaving installation directory untouched, so it can be started again
+     */
+    void stopWithoutCleanup() {
+        try {
+            stopElasticServer();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Server is started once its readiness is confirmed, until it is stopped
+     */
     boolean isStarted() {
-        return started;
+        CompletableFuture<Void> readiness = ready;
+        return readiness != null && readiness.isDone() && !readiness.isCompletedExceptionally();
+    }
+
+    boolean isAlive() {
+        Process process = elastic;
+        return isStarted() && process != null && process.isAlive();
     }
 
-    private void deleteInstallationDirectory() {
+    private void deleteInstanceDirectory() {
         try {
-            deleteDirectory(installationDirectory);
+            if (backgroundCleanup) {
+                instanceDirectory.deleteInBackground(LifecycleManager.get().executor());
+                return;
+            }
+            instanceDirectory.delete();
         } catch (IOException e) {
             throw new EmbeddedElasticsearchStartupException("Could not delete data directory of embedded elasticsearch server. Possibly an instance is running.", e);
         }
     }
 
+    private ProcessBuilder processBuilder() throws IOException {
+        ProcessBuilder builder = new ProcessBuilder();
+        builder.environment().put("ES_JAVA_OPTS", esJavaOpts);
+        builder.environment().put("ES_PATH_CONF", instanceDirectory.getConfigDirectory().getAbsolutePath());
+        FileUtils.forceMkdir(instanceDirectory.getTmpDirectory());
+        builder.environment().put("ES_TMPDIR", instanceDirectory.getTmpDirectory().getAbsolutePath());
+        javaHome.ifNeedBeSet(javaHomeValue -> builder.environment().put("JAVA_HOME", javaHomeValue));
+        builder.redirectErrorStream(true);
+        if (directLaunchCommand.isPresent()) {
+            directLaunchCommand.get().configure(builder, startupArguments, instanceDirectory);
+        } else {
+            builder.command(elasticCommand());
+        }
+        return builder;
+    }
+
     private void startElasticProcess() {
-        ownerThread = new Thread(() -> {
+        outputHandler = LifecycleManager.get().executor().submit(() -> {
             try {
-                synchronized (this) {
-                    ProcessBuilder builder = new ProcessBuilder();
-                    builder.environment().put("ES_JAVA_OPTS", esJavaOpts);
-                    javaHome.ifNeedBeSet(javaHomeValue -> builder.environment().put("JAVA_HOME", javaHomeValue));
-                    builder.redirectErrorStream(true);
-                    builder.command(elasticExecutable());
-                    elastic = builder.start();
+                Process process = processBuilder().start();
+                if (directLaunchCommand.isPresent()) {
+                    detectPid(process);
                 }
-                BufferedReader outputStream = new BufferedReader(new InputStreamReader(elastic.getInputStream(), UTF_8));
+                elastic = process;
+                readinessStrategy.onProcessStarted(httpPort, ready);
+                BufferedReader outputStream = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8));
                 String line;
                 while ((line = readLine(outputStream)) != null) {
-                    logger.info(line);
+                    outputPump.accept(line);
                     parseElasticLogLine(line);
                 }
+                ready.completeExceptionally(new EmbeddedElasticsearchStartupException("Failed to start elasticsearch. Check previous logs for details"));
             } catch (Exception e) {
+                ready.completeExceptionally(e);
                 throw new EmbeddedElasticsearchStartupException(e);
             }
-        }, "EmbeddedElsHandler");
-        ownerThread.start();
+        });
+    }
+
+    /**
+     * Starts process which outlives this JVM: its output goes to a file, no exit hook is installed and readiness is
+     * detected only by readiness strategy, which has to probe a known http port
+     */
+    private void startDetachedElasticProcess() {
+        File outputFile = getDetachedOutputFile();
+        try {
+            outputFile.getParentFile().mkdirs();
+            ProcessBuilder builder = processBuilder()
+                    .redirectOutput(Redirect.appendTo(outputFile));
+            if (!SystemUtils.IS_OS_WINDOWS) {
+                builder.redirectInput(Redirect.from(new File("/dev/null")));
+            }
+            elastic = builder.start();
+        } catch (IOException e) {
+            throw new EmbeddedElasticsearchStartupException(e);
+        }
+        detectPid(elastic);
+        readinessStrategy.onProcessStarted(httpPort, ready);
+        Process process = elastic;
+        outputHandler = LifecycleManager.get().executor().submit(() -> {
+            while (!ready.isDone()) {
+                if (!process.isAlive()) {
+                    ready.completeExceptionally(new EmbeddedElasticsearchStartupException(
+                            "Failed to start elasticsearch. Check its output in " + outputFile));
+                    return;
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+    }
+
+    private File getDetachedOutputFile() {
+        return new File(instanceDirectory.getLogsDirectory(), "daemon-output.log");
     }
 
     private String readLine(BufferedReader outputStream) {
@@ -104,112 +216,170 @@ class ElasticServer {
         }
     }
 
-    private void installExitHook() {
-        Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "ElsInstanceCleaner"));
+    /**
+     * Process is stopped at JVM exit, unless it is stopped earlier
+     */
+    private void registerForExit() {
+        LifecycleManager.Registration previous = registration.getAndSet(
+                LifecycleManager.get().register("Elasticsearch in " + instanceDirectory, this::stop));
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    private void unregisterFromExit() {
+        LifecycleManager.Registration current = registration.getAndSet(null);
+        if (current != null) {
+            current.close();
+        }
     }
 
-    private String elasticExecutable() {
-        return executableFile.getAbsolutePath();
+    private List<String> elasticCommand() {
+        List<String> command = new ArrayList<>();
+        command.add(executableFile.getAbsolutePath());
+        command.addAll(startupArguments);
+        return command;
     }
 
     private void waitForElasticToStart() throws InterruptedException {
         logger.info("Waiting for ElasticSearch to start...");
-        long waitUntil = System.currentTimeMillis() + startTimeoutInMs;
-
-        synchronized (startedLock) {
-            boolean timedOut = false;
-            while (!started && !timedOut && (elastic == null || elastic.isAlive())) {
-                startedLock.wait(100);
-                timedOut = System.currentTimeMillis() > waitUntil;
+        try {
+            ready.get(startTimeoutInMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            outputPump.dump();
+            if (detached) {
+                elastic.destroy();
             }
-            if (!started) {
-                String message = timedOut ? "Failed to start elasticsearch within time-out" : "Failed to start elasticsearch. Check previous logs for details";
-                throw new EmbeddedElasticsearchStartupException(message);
+            throw new EmbeddedElasticsearchStartupException("Failed to start elasticsearch within time-out");
+        } catch (ExecutionException e) {
+            outputPump.dump();
+            if (e.getCause() instanceof EmbeddedElasticsearchStartupException) {
+                throw (EmbeddedElasticsearchStartupException) e.getCause();
             }
+            throw new EmbeddedElasticsearchStartupException(e.getCause());
         }
-
         logger.info("ElasticSearch started...");
     }
 
     private void parseElasticLogLine(String line) {
-        if (started) {
+        if (ready.isDone()) {
             return;
         }
-        if (line.contains("] started")) {
-            signalElasticStarted();
-        } else if (line.contains(", pid[")) {
+        readinessStrategy.onOutputLine(line, ready);
+        if (StartupLogParser.isPidLine(line)) {
             tryExtractPid(line);
-        } else if (line.contains("publish_address") && (line.contains("[http") || line.contains("HttpServer"))) {
+        } else if (StartupLogParser.isHttpPublishAddressLine(line)) {
             tryExtractHttpPort(line);
-        } else if (line.contains("publish_address") && (line.contains("[transport") || line.contains("TransportService"))) {
+        } else if (StartupLogParser.isTransportPublishAddressLine(line)) {
             tryExtractTransportTcpPort(line);
         }
     }
 
-    private void signalElasticStarted() {
-        synchronized (startedLock) {
-            started = true;
-            startedLock.notifyAll();
+    /**
+     * Process started directly is Elasticsearch JVM itself, so its PID is known without waiting for it to be logged
+     */
+    private void detectPid(Process process) {
+        try {
+            Method pidMethod = Process.class.getMethod("pid");
+            pid = ((Long) pidMethod.invoke(process)).intValue();
+        } catch (ReflectiveOperationException java8) {
+            try {
+                Field pidField = process.getClass().getDeclaredField("pid");
+                pidField.setAccessible(true);
+                pid = pidField.getInt(process);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                logger.debug("Unable to determine PID of Elasticsearch process", e);
+                return;
+            }
         }
+        logger.info("Detected Elasticsearch PID : " + pid);
     }
 
     private void tryExtractPid(String line) {
-        Matcher matcher = Pattern.compile("pid\\[(\\d+)]").matcher(line);
-        isTrue(matcher.find());
-        pid = Integer.parseInt(matcher.group(1));
-        logger.info("Detected Elasticsearch PID : " + pid);
+        int extractedPid = StartupLogParser.extractPid(line);
+        if (extractedPid > -1) {
+            pid = extractedPid;
+            logger.info("Detected Elasticsearch PID : " + pid);
+        }
     }
 
     private void tryExtractHttpPort(String line) {
-        Matcher matcher = Pattern.compile("publish_address \\{.*?:(\\d+).?}").matcher(line);
-        isTrue(matcher.find());
-        httpPort = Integer.parseInt(matcher.group(1));
-        logger.info("Detected Elasticsearch http port : " + httpPort);
+        int extractedPort = StartupLogParser.extractPublishPort(line);
+        if (extractedPort > -1) {
+            httpPort = extractedPort;
+            logger.info("Detected Elasticsearch http port : " + httpPort);
+        }
     }
 
     private void tryExtractTransportTcpPort(String line) {
-        Matcher matcher = Pattern.compile("publish_address \\{.*?:(\\d+).?}").matcher(line);
-        isTrue(matcher.find());
-        transportTcpPort = Integer.parseInt(matcher.group(1));
-        logger.info("Detected Elasticsearch transport tcp port : " + transportTcpPort);
+        int extractedPort = StartupLogParser.extractPublishPort(line);
+        if (extractedPort > -1) {
+            transportTcpPort = extractedPort;
+            logger.info("Detected Elasticsearch transport tcp port : " + transportTcpPort);
+        }
     }
 
     private void stopElasticServer() throws IOException, InterruptedException {
         logger.info("Stopping elasticsearch server...");
-        if (pid > -1) {
-            stopElasticGracefully();
-        }
-        pid = -1;
         if (elastic != null) {
-            int rc = elastic.waitFor();
+            stopElasticGracefully(elastic, pid);
+            int rc = waitForExit(elastic, stopTimeoutInMs);
             logger.info("Elasticsearch exited with RC " + rc);
         }
+        pid = -1;
         elastic = null;
-        if (ownerThread != null) {
-            ownerThread.join();
+        if (outputHandler != null) {
+            try {
+                outputHandler.get();
+            } catch (ExecutionException e) {
+                logger.debug("Handling of Elasticsearch output failed", e.getCause());
+            }
         }
-        ownerThread = null;
+        outputHandler = null;
+        ready = null;
+        unregisterFromExit();
     }
 
-    private void stopElasticGracefully() throws IOException {
-        if (SystemUtils.IS_OS_WINDOWS) {
-            stopElasticOnWindows();
+    /**
+     * Process which ignores termination request is killed once stop timeout elapses
+     */
+    static int waitForExit(Process process, long stopTimeoutInMs) throws InterruptedException {
+        if (!process.waitFor(stopTimeoutInMs, TimeUnit.MILLISECONDS)) {
+            logger.warn("Elasticsearch did not stop within " + stopTimeoutInMs + " ms, killing it");
+            process.destroyForcibly();
+        }
+        return process.waitFor();
+    }
+
+    /**
+     * Termination is requested even if PID was not detected yet, PID is needed only to kill process tree on Windows
+     */
+    static void stopElasticGracefully(Process process, int pid) throws IOException {
+        if (SystemUtils.IS_OS_WINDOWS && pid > -1) {
+            stopElasticOnWindows(pid);
         } else {
-            elastic.destroy();
+            process.destroy();
         }
     }
 
-    private void stopElasticOnWindows() throws IOException {
+    private static void stopElasticOnWindows(int pid) throws IOException {
         Runtime.getRuntime().exec("taskkill /f /pid " + pid);
     }
 
     private void finalizeClose() {
-        if (this.cleanInstallationDirectoryOnStop) {
-            logger.info("Removing installation directory...");
-            deleteInstallationDirectory();
+        if (this.cleanInstanceDirectoryOnStop) {
+            logger.info("Removing instance directory...");
+            deleteInstanceDirectory();
         }
         logger.info("Finishing...");
-        started = false;
+    }
+
+    InstanceDirectory getInstanceDirectory() {
+        return instanceDirectory;
+    }
+
+    int getPid() {
+        return pid;
     }
 
     int getHttpPort() {
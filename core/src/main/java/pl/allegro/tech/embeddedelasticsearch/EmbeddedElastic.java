@@ -1,7 +1,10 @@
 package pl.allegro.tech.embeddedelasticsearch;
 
 import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import pl.allegro.tech.embeddedelasticsearch.InstallationDescription.Plugin;
+import pl.allegro.tech.embeddedelasticsearch.StartupReport.Phase;
 
 import java.io.File;
 import java.io.IOException;
@@ -12,11 +15,20 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -25,16 +37,52 @@ import static pl.allegro.tech.embeddedelasticsearch.Require.require;
 
 public final class EmbeddedElastic {
 
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedElastic.class);
+    private static final Set<LifecycleState> IDLE_STATES = EnumSet.of(LifecycleState.NEW, LifecycleState.STOPPED, LifecycleState.FAILED);
+    private static final Set<LifecycleState> SETTLED_STATES = EnumSet.of(LifecycleState.PROVISIONED, LifecycleState.STOPPED, LifecycleState.FAILED);
+
     private final String esJavaOpts;
     private final InstanceSettings instanceSettings;
     private final IndicesDescription indicesDescription;
     private final TemplatesDescription templatesDescription;
     private final InstallationDescription installationDescription;
     private final long startTimeoutInMs;
+    private final boolean goldenImageEnabled;
+    private final boolean directLaunch;
+    private final boolean classDataSharingEnabled;
+    private final ReadinessStrategy readinessStrategy;
+    private final OutputForwarding outputForwarding;
+    private final int outputBufferSize;
+    private final Executor lifecycleExecutor;
+    private final int nodes;
+    private final boolean daemonMode;
+    private final boolean automaticPorts;
+    private final MemoryBackedStorage memoryBackedStorage;
+    private final PerformanceProfile performanceProfile;
+    private final long resourceMonitoringIntervalInMs;
+    private final long stopTimeoutInMs;
+    private final boolean backgroundCleanup;
+    private final boolean automaticJvmSizing;
+    private final int expectedInstances;
+    private final long memoryBackedStorageCapacityInMb;
+    private final long daemonIdleTimeoutInMs;
+    private final AtomicReference<CompletableFuture<EmbeddedElastic>> startFuture = new AtomicReference<>();
 
     private ElasticServer elasticServer;
+    private InstanceDirectory instanceDirectory;
+    private List<ElasticServer> additionalNodes = Collections.emptyList();
+    private PortAllocator.PortReservation portReservation;
+    private DaemonRegistry daemonRegistry;
+    private String daemonClientId;
+    private DaemonRegistry.Entry attachedDaemon;
+    private LifecycleManager.Registration daemonRegistration;
+    private Optional<ClassDataSharing> classDataSharing = Optional.empty();
+    private volatile StartupReport startupReport = new StartupReport();
+    private GoldenImage goldenImage;
+    private boolean goldenImageRestored;
     private ElasticRestClient elasticRestClient;
-    private volatile boolean started = false;
+    private volatile ResourceSampler resourceSampler;
+    private final LifecycleStateMachine lifecycle = new LifecycleStateMachine();
     private final JavaHomeOption javaHome;
 
     public static Builder builder() {
@@ -43,7 +91,13 @@ public final class EmbeddedElastic {
 
     private EmbeddedElastic(String esJavaOpts, InstanceSettings instanceSettings,
                             IndicesDescription indicesDescription, TemplatesDescription templatesDescription,
-                            InstallationDescription installationDescription, long startTimeoutInMs, JavaHomeOption javaHome) {
+                            InstallationDescription installationDescription, long startTimeoutInMs, JavaHomeOption javaHome,
+                            boolean goldenImageEnabled, boolean directLaunch, boolean classDataSharingEnabled,
+                            ReadinessStrategy readinessStrategy, OutputForwarding outputForwarding, int outputBufferSize,
+                            Executor lifecycleExecutor, int nodes, boolean daemonMode, long daemonIdleTimeoutInMs,
+                            boolean automaticPorts, MemoryBackedStorage memoryBackedStorage, long memoryBackedStorageCapacityInMb,
+                            PerformanceProfile performanceProfile, long resourceMonitoringIntervalInMs,
+                            long stopTimeoutInMs, boolean backgroundCleanup, boolean automaticJvmSizing, int expectedInstances) {
         this.esJavaOpts = esJavaOpts;
         this.instanceSettings = instanceSettings;
         this.indicesDescription = indicesDescription;
@@ -51,52 +105,536 @@ public final class EmbeddedElastic {
         this.installationDescription = installationDescription;
         this.startTimeoutInMs = startTimeoutInMs;
         this.javaHome = javaHome;
+        this.goldenImageEnabled = goldenImageEnabled;
+        this.directLaunch = directLaunch;
+        this.classDataSharingEnabled = classDataSharingEnabled;
+        this.readinessStrategy = readinessStrategy;
+        this.outputForwarding = outputForwarding;
+        this.outputBufferSize = outputBufferSize;
+        this.lifecycleExecutor = lifecycleExecutor;
+        this.nodes = nodes;
+        this.daemonMode = daemonMode;
+        this.daemonIdleTimeoutInMs = daemonIdleTimeoutInMs;
+        this.automaticPorts = automaticPorts;
+        this.memoryBackedStorage = memoryBackedStorage;
+        this.memoryBackedStorageCapacityInMb = memoryBackedStorageCapacityInMb;
+        this.performanceProfile = performanceProfile;
+        this.resourceMonitoringIntervalInMs = resourceMonitoringIntervalInMs;
+        this.stopTimeoutInMs = stopTimeoutInMs;
+        this.backgroundCleanup = backgroundCleanup;
+        this.automaticJvmSizing = automaticJvmSizing;
+        this.expectedInstances = expectedInstances;
     }
 
     /**
      * Downloads Elasticsearch with specified plugins, setups them and starts
      */
-    public synchronized EmbeddedElastic start() throws IOException, InterruptedException {
-        if (!started) {
-            started = true;
-            installElastic();
-            startElastic();
-            createRestClient();
-            createTemplates();
-            createIndices();
+    public EmbeddedElastic start() throws IOException, InterruptedException {
+        while (!lifecycle.transition(IDLE_STATES, LifecycleState.INSTALLING)) {
+            LifecycleState settled = lifecycle.awaitSettled(SETTLED_STATES, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            if (settled == LifecycleState.PROVISIONED) {
+                return this;
+            }
+            if (settled == LifecycleState.FAILED) {
+                throw new EmbeddedElasticsearchStartupException("Elasticsearch failed to start", lifecycle.getFailure());
+            }
+        }
+        try {
+            long startTime = System.nanoTime();
+            startupReport = new StartupReport();
+            try {
+                if (daemonMode) {
+                    startOrAttachDaemon();
+                } else {
+                    installElastic();
+                    startElastic();
+                }
+                lifecycle.advance(LifecycleState.READY);
+                createRestClient();
+                createTemplates();
+                createIndices();
+                captureGoldenImage();
+            } finally {
+                releasePorts();
+            }
+            startupReport.complete(System.nanoTime() - startTime);
+            logger.info(startupReport.toString());
+            startResourceMonitoring();
+            lifecycle.advance(LifecycleState.PROVISIONED);
+        } catch (Throwable e) {
+            lifecycle.fail(e);
+            throw e;
         }
         return this;
     }
 
+    /**
+     * Same as {@link #start()}, but runs on lifecycle executor. Subsequent invocations return the same future until
+     * instance is stopped, or until the start fails, so it can be retried
+     */
+    public CompletableFuture<EmbeddedElastic> startAsync() {
+        CompletableFuture<EmbeddedElastic> future = new CompletableFuture<>();
+        if (!startFuture.compareAndSet(null, future)) {
+            return startFuture.get();
+        }
+        lifecycleExecutor.execute(() -> {
+            try {
+                future.complete(start());
+            } catch (Throwable e) {
+                startFuture.compareAndSet(future, null);
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
     private void installElastic() throws IOException, InterruptedException {
-        ElasticSearchInstaller elasticSearchInstaller = new ElasticSearchInstaller(instanceSettings, installationDescription);
+        ElasticSearchInstaller elasticSearchInstaller = new ElasticSearchInstaller(installationDescription, startupReport);
         elasticSearchInstaller.install();
+        createInstanceDirectory(elasticSearchInstaller);
         File executableFile = elasticSearchInstaller.getExecutableFile();
         File installationDirectory = elasticSearchInstaller.getInstallationDirectory();
-        elasticServer = new ElasticServer(esJavaOpts, installationDirectory, executableFile, startTimeoutInMs,
-                installationDescription.isCleanInstallationDirectoryOnStop(), javaHome);
+        if (classDataSharingEnabled) {
+            classDataSharing = ClassDataSharing.forInstallation(installationDirectory, elasticSearchInstaller.installationFingerprint(), javaHome);
+        }
+        String sizedJavaOpts = sizedJavaOpts();
+        String esJavaOpts = classDataSharing.map(cds -> cds.extendJavaOpts(sizedJavaOpts)).orElse(sizedJavaOpts);
+        if (nodes > 1) {
+            createClusterNodes(installationDirectory, executableFile, sizedJavaOpts, esJavaOpts);
+            return;
+        }
+        Optional<Integer> configuredHttpPort = configuredPort(PopularProperties.HTTP_PORT);
+        Optional<Integer> configuredTransportTcpPort = configuredPort(PopularProperties.TRANSPORT_TCP_PORT);
+        boolean allocateHttpPort = !configuredHttpPort.isPresent() && (automaticPorts || readinessStrategy.requiresKnownHttpPort() || daemonMode);
+        boolean allocateTransportTcpPort = !configuredTransportTcpPort.isPresent() && (automaticPorts || daemonMode);
+        portReservation = PortAllocator.shared().reserve((allocateHttpPort ? 1 : 0) + (allocateTransportTcpPort ? 1 : 0));
+        Iterator<Integer> reservedPorts = portReservation.getPorts().iterator();
+        InstanceSettings startupSettings = new InstanceSettings();
+        int httpPort = configuredHttpPort.orElse(-1);
+        int transportTcpPort = configuredTransportTcpPort.orElse(-1);
+        if (allocateHttpPort) {
+            httpPort = reservedPorts.next();
+            startupSettings = startupSettings.withSetting(PopularProperties.HTTP_PORT, httpPort);
+        }
+        if (allocateTransportTcpPort) {
+            transportTcpPort = reservedPorts.next();
+            startupSettings = startupSettings.withSetting(PopularProperties.TRANSPORT_TCP_PORT, transportTcpPort);
+        }
+        elasticServer = createServer(installationDirectory, executableFile, esJavaOpts, withInstancePaths(startupSettings), httpPort,
+                transportTcpPort, installationDescription.isCleanInstallationDirectoryOnStop() && !daemonMode);
+    }
+
+    /**
+     * Every start gets new instance directory with its own config, data and logs, restored from golden image if
+     * it is enabled and available
+     */
+    private void createInstanceDirectory(ElasticSearchInstaller elasticSearchInstaller) throws IOException, InterruptedException {
+        File installationDirectory = elasticSearchInstaller.getInstallationDirectory();
+        instanceDirectory = newInstanceDirectory(elasticSearchInstaller.getInstancesDirectory(), installationDirectory.getName());
+        if (goldenImageEnabled) {
+            goldenImage = new GoldenImage(
+                    new File(installationDescription.getInstallationDirectory(), "golden-images"),
+                    GoldenImage.fingerprint(configurationFingerprint(elasticSearchInstaller), indicesDescription, templatesDescription));
+            goldenImageRestored = goldenImage.isAvailable();
+            if (goldenImageRestored) {
+                startupReport.measure(Phase.GOLDEN_IMAGE_RESTORE, () -> {
+                    goldenImage.restoreTo(instanceDirectory);
+                    return null;
+                });
+                startupReport.skip(Phase.CONFIGURATION, Phase.TEMPLATES_CREATION, Phase.INDICES_CREATION, Phase.GOLDEN_IMAGE_CAPTURE);
+                return;
+            }
+        }
+        startupReport.measure(Phase.CONFIGURATION, () -> {
+            instanceDirectory.configure(installationDirectory, instanceSettings);
+            return null;
+        });
+    }
+
+    private InstanceDirectory newInstanceDirectory(File instancesDirectory, String namePrefix) throws IOException {
+        if (memoryBackedStorage == MemoryBackedStorage.NONE) {
+            return InstanceDirectory.create(instancesDirectory, namePrefix);
+        }
+        Optional<File> memoryInstancesDirectory = MemoryFileSystem.sharedMemory()
+                .instancesDirectory(memoryBackedStorageCapacityInMb * 1024 * 1024);
+        if (!memoryInstancesDirectory.isPresent()) {
+            return InstanceDirectory.create(instancesDirectory, namePrefix);
+        }
+        logger.info("Keeping instance " + (memoryBackedStorage == MemoryBackedStorage.DATA ? "data" : "state") + " in " + memoryInstancesDirectory.get());
+        return memoryBackedStorage == MemoryBackedStorage.DATA
+                ? InstanceDirectory.create(instancesDirectory, memoryInstancesDirectory.get(), namePrefix)
+                : InstanceDirectory.create(memoryInstancesDirectory.get(), namePrefix);
+    }
+
+    private String configurationFingerprint(ElasticSearchInstaller elasticSearchInstaller) {
+        return InstallationManifest.fingerprint(elasticSearchInstaller.installationFingerprint(), instanceSettings.toYaml());
+    }
+
+    /**
+     * Points Elasticsearch to instance directories, unless they are set explicitly. Elasticsearch 6.x and newer read
+     * config directory from ES_PATH_CONF variable set by {@link ElasticServer}, older versions from path.conf setting
+     */
+    private InstanceSettings withInstancePaths(InstanceSettings startupSettings) {
+        InstanceSettings settings = startupSettings;
+        if (isNotConfigured(settings, "path.data")) {
+            settings = settings.withSetting("path.data", instanceDirectory.getDataDirectory().getAbsolutePath());
+        }
+        if (isNotConfigured(settings, "path.logs")) {
+            settings = settings.withSetting("path.logs", instanceDirectory.getLogsDirectory().getAbsolutePath());
+        }
+        if (installationDescription.versionIs1x() || installationDescription.versionIs2x() || installationDescription.versionIs5x()) {
+            settings = settings.withSetting("path.conf", instanceDirectory.getConfigDirectory().getAbsolutePath());
+        }
+        return settings;
+    }
+
+    private boolean isNotConfigured(InstanceSettings startupSettings, String setting) {
+        return !startupSettings.getSetting(setting).isPresent() && !instanceSettings.getSetting(setting).isPresent();
+    }
+
+    /**
+     * First node cleans instance directory on stop, so it has to be stopped after additional nodes. Only the first
+     * node dumps class data sharing archive, so nodes do not write the same file concurrently
+     */
+    private void createClusterNodes(File installationDirectory, File executableFile, String sizedJavaOpts, String esJavaOpts)
+            throws IOException, InterruptedException {
+        portReservation = PortAllocator.shared().reserve(2 * nodes);
+        ClusterTopology topology = ClusterTopology.withReservedPorts(nodes, portReservation.getPorts());
+        elasticServer = createServer(installationDirectory, executableFile, esJavaOpts,
+                withInstancePaths(topology.nodeSettings(0, installationDescription, instanceDirectory)), topology.getHttpPort(0),
+                topology.getTransportTcpPort(0), installationDescription.isCleanInstallationDirectoryOnStop());
+        String additionalNodesJavaOpts = classDataSharing
+                .filter(ClassDataSharing::isArchiveAvailable)
+                .map(cds -> cds.extendJavaOpts(sizedJavaOpts))
+                .orElse(sizedJavaOpts);
+        additionalNodes = new ArrayList<>();
+        for (int node = 1; node < nodes; node++) {
+            additionalNodes.add(createServer(installationDirectory, executableFile, additionalNodesJavaOpts,
+                    withInstancePaths(topology.nodeSettings(node, installationDescription, instanceDirectory)), topology.getHttpPort(node),
+                    topology.getTransportTcpPort(node), false));
+        }
+    }
+
+    /**
+     * Host resources are split between nodes being started and nodes already running in this JVM when the instance
+     * starts, so instances started later, e.g. replenished ones of a pool, are sized for what actually runs
+     */
+    private String sizedJavaOpts() {
+        if (!automaticJvmSizing) {
+            return esJavaOpts;
+        }
+        int instances = JvmSizing.concurrentInstances(nodes, LifecycleManager.get().getRegistrationsCount(), nodes * expectedInstances);
+        return JvmSizing.ofHost(instances).mergeWith(esJavaOpts);
+    }
+
+    private ElasticServer createServer(File installationDirectory, File executableFile, String esJavaOpts, InstanceSettings startupSettings,
+                                       int httpPort, int transportTcpPort, boolean cleanInstanceDirectoryOnStop) throws IOException, InterruptedException {
+        Optional<DirectLaunchCommand> directLaunchCommand = directLaunch
+                ? DirectLaunchCommand.resolve(installationDescription, installationDirectory, esJavaOpts, javaHome)
+                : Optional.empty();
+        return new ElasticServer(esJavaOpts, instanceDirectory, executableFile, startTimeoutInMs,
+                cleanInstanceDirectoryOnStop, javaHome, directLaunchCommand, daemonMode ? ReadinessStrategy.httpProbe() : readinessStrategy,
+                startupSettings.toCommandLineArguments(installationDescription.versionIs1x() || installationDescription.versionIs2x()), httpPort,
+                transportTcpPort, outputForwarding, outputBufferSize, daemonMode, stopTimeoutInMs, backgroundCleanup);
+    }
+
+    /**
+     * Attaches to Elasticsearch daemon started by another JVM with the same configuration, or starts a new daemon
+     * when there is none. Daemon with different configuration is replaced only when no JVM is attached to it
+     */
+    private void startOrAttachDaemon() throws IOException, InterruptedException {
+        ElasticSearchInstaller elasticSearchInstaller = new ElasticSearchInstaller(installationDescription, startupReport);
+        String fingerprint = InstallationManifest.fingerprint(configurationFingerprint(elasticSearchInstaller), esJavaOpts,
+                String.valueOf(automaticJvmSizing), JavaRuntime.of(javaHome).getExecutable(), String.valueOf(directLaunch),
+                String.valueOf(classDataSharingEnabled));
+        daemonRegistry = new DaemonRegistry(elasticSearchInstaller.getInstallationDirectory());
+        daemonClientId = DaemonRegistry.newClientId();
+        daemonRegistry.locked(() -> {
+            Optional<DaemonRegistry.Entry> running = daemonRegistry.read()
+                    .filter(entry -> DaemonRegistry.isProcessAlive(entry.getPid()));
+            if (running.isPresent() && running.get().getFingerprint().equals(fingerprint)) {
+                attachedDaemon = running.get().withClient(daemonClientId);
+                daemonRegistry.write(attachedDaemon);
+                startupReport.skip(Phase.DOWNLOAD, Phase.UNZIP, Phase.CONFIGURATION, Phase.PLUGINS_INSTALLATION, Phase.JVM_BOOT);
+                logger.info("Attached to Elasticsearch daemon " + attachedDaemon.getPid() + " on http port " + attachedDaemon.getHttpPort());
+                return null;
+            }
+            if (running.isPresent()) {
+                replaceDaemon(running.get());
+            }
+            installElastic();
+            startElastic();
+            daemonRegistry.write(new DaemonRegistry.Entry(fingerprint, elasticServer.getPid(), elasticServer.getHttpPort(),
+                    elasticServer.getTransportTcpPort(), instanceDirectory.getRoot().getAbsolutePath(),
+                    Collections.singletonList(daemonClientId), System.currentTimeMillis()));
+            DaemonReaper.launch(daemonRegistry, daemonIdleTimeoutInMs);
+            logger.info("Started Elasticsearch daemon " + elasticServer.getPid() + " on http port " + elasticServer.getHttpPort());
+            return null;
+        });
+        daemonRegistration = LifecycleManager.get().register("Elasticsearch daemon client " + daemonClientId, this::releaseDaemon);
+    }
+
+    private void replaceDaemon(DaemonRegistry.Entry daemon) throws IOException, InterruptedException {
+        List<String> liveClients = daemon.retainClients(DaemonRegistry::isClientAlive).getClients();
+        if (!liveClients.isEmpty()) {
+            throw new EmbeddedElasticsearchStartupException("Installation directory " + daemonRegistry.getInstallationDirectory()
+                    + " is used by Elasticsearch daemon with different configuration, attached by " + liveClients);
+        }
+        logger.info("Terminating idle Elasticsearch daemon " + daemon.getPid() + " with different configuration");
+        if (!DaemonRegistry.terminate(daemon.getPid(), startTimeoutInMs)) {
+            throw new EmbeddedElasticsearchStartupException("Elasticsearch daemon " + daemon.getPid() + " did not exit within time-out");
+        }
+        daemonRegistry.delete();
+        InstanceDirectory.existing(new File(daemon.getInstanceDirectory())).delete();
+    }
+
+    /**
+     * Detaches this JVM from daemon, which keeps running until it is idle for longer than daemon idle timeout
+     */
+    private void releaseDaemon() {
+        try {
+            daemonRegistry.locked(() -> {
+                Optional<DaemonRegistry.Entry> entry = daemonRegistry.read();
+                if (entry.isPresent()) {
+                    daemonRegistry.write(entry.get().retainClients(client -> !client.equals(daemonClientId)));
+                }
+                return null;
+            });
+        } catch (IOException e) {
+            logger.warn("Unable to release Elasticsearch daemon", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Ports are bound by started nodes, or nodes failed to start, either way reservation is no longer needed. It is
+     * kept until golden image is captured, as nodes are restarted on the same ports then
+     */
+    private void releasePorts() {
+        if (portReservation != null) {
+            portReservation.close();
+            portReservation = null;
+        }
+    }
+
+    private Optional<Integer> configuredPort(String setting) {
+        return instanceSettings.getSetting(setting)
+                .map(Object::toString)
+                .filter(port -> port.matches("\\d+"))
+                .map(Integer::valueOf);
+    }
+
+    private void captureGoldenImage() throws IOException, InterruptedException {
+        if (goldenImageEnabled && !goldenImageRestored) {
+            startupReport.measure(Phase.GOLDEN_IMAGE_CAPTURE, () -> {
+                elasticRestClient.flush();
+                elasticServer.stopWithoutCleanup();
+                goldenImage.captureFrom(elasticServer.getInstanceDirectory());
+                elasticServer.start();
+                return null;
+            });
+            createRestClient();
+        }
     }
 
     private void startElastic() throws IOException, InterruptedException {
         if (!elasticServer.isStarted()) {
+            lifecycle.advance(LifecycleState.BOOTING);
+            long startTime = System.nanoTime();
+            startupReport.measure(Phase.JVM_BOOT, () -> {
+                startNodes();
+                return null;
+            });
+            long startupTimeInMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            classDataSharing.ifPresent(cds -> cds.reportStartup(startupTimeInMs));
+        }
+    }
+
+    /**
+     * Nodes of a cluster boot in parallel, each waiting for its own readiness. When any of them fails, the rest are
+     * waited for and all nodes are stopped, so no node of half started cluster is left running
+     */
+    private void startNodes() throws InterruptedException {
+        List<CompletableFuture<Void>> startingNodes = additionalNodes.stream()
+                .map(node -> CompletableFuture.runAsync(() -> startNode(node), LifecycleManager.get().executor()))
+                .collect(toList());
+        CompletableFuture<Void> allStarted = CompletableFuture.allOf(startingNodes.toArray(new CompletableFuture<?>[0]));
+        try {
             elasticServer.start();
+            allStarted.join();
+        } catch (CompletionException e) {
+            EmbeddedElasticsearchStartupException failure = e.getCause() instanceof EmbeddedElasticsearchStartupException
+                    ? (EmbeddedElasticsearchStartupException) e.getCause()
+                    : new EmbeddedElasticsearchStartupException(e.getCause());
+            stopNodesAfterFailedStart(allStarted, failure);
+            throw failure;
+        } catch (RuntimeException | InterruptedException e) {
+            stopNodesAfterFailedStart(allStarted, e);
+            throw e;
+        }
+    }
+
+    private void stopNodesAfterFailedStart(CompletableFuture<Void> allStarted, Throwable failure) {
+        try {
+            allStarted.handle((result, e) -> null).join();
+            additionalNodes.parallelStream().forEach(ElasticServer::stop);
+            elasticServer.stop();
+        } catch (RuntimeException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    private void startNode(ElasticServer node) {
+        try {
+            node.start();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EmbeddedElasticsearchStartupException(e);
         }
     }
 
     private void createRestClient() throws UnknownHostException {
-        elasticRestClient = new ElasticRestClient(elasticServer.getHttpPort(), new HttpClient(), indicesDescription, templatesDescription);
+        elasticRestClient = new ElasticRestClient(getHttpPort(), new HttpClient(), indicesDescription, templatesDescription, startupReport, nodes,
+                performanceProfile.indexSettings(installationDescription));
+    }
+
+    boolean isAlive() {
+        LifecycleState state = lifecycle.getState();
+        boolean started = state == LifecycleState.READY || state == LifecycleState.PROVISIONED;
+        if (attachedDaemon != null) {
+            return started && DaemonRegistry.isProcessAlive(attachedDaemon.getPid());
+        }
+        return started && elasticServer != null && elasticServer.isAlive();
+    }
+
+    /**
+     * Deletes all indices not managed by this instance and recreates managed ones
+     */
+    void resetIndices() {
+        elasticRestClient.deleteUnmanagedIndices();
+        recreateIndices();
     }
 
     /**
      * Stops Elasticsearch instance and removes data
      */
-    public synchronized void stop() {
-        if (elasticServer != null && started) {
-            started = false;
-            elasticServer.stop();
+    public void stop() {
+        CompletableFuture<EmbeddedElastic> pendingStart = startFuture.get();
+        boolean claimed = false;
+        try {
+            awaitPendingStart(pendingStart);
+            claimed = claimStop();
+            if (!claimed) {
+                return;
+            }
+            stopResourceMonitoring();
+            if (daemonRegistration != null) {
+                releaseDaemon();
+                daemonRegistration.close();
+                daemonRegistration = null;
+                attachedDaemon = null;
+            } else if (elasticServer != null) {
+                additionalNodes.parallelStream().forEach(ElasticServer::stop);
+                elasticServer.stop();
+            }
+            lifecycle.advance(LifecycleState.STOPPED);
+        } catch (RuntimeException e) {
+            lifecycle.fail(e);
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for Elasticsearch to start before stopping it", e);
+        } finally {
+            if (claimed) {
+                startFuture.compareAndSet(pendingStart, null);
+            }
         }
     }
 
+    /**
+     * Start requested with {@link #startAsync()} may not have reached lifecycle executor yet, it is finished first, so
+     * it does not start a node after the instance was stopped
+     */
+    private static void awaitPendingStart(CompletableFuture<EmbeddedElastic> pendingStart) throws InterruptedException {
+        if (pendingStart == null) {
+            return;
+        }
+        try {
+            pendingStart.get();
+        } catch (ExecutionException | CancellationException e) {
+            logger.debug("Pending start failed, stopping anyway", e);
+        }
+    }
+
+    /**
+     * Instance being started is stopped once it is started, instance being stopped by another thread is not stopped
+     * again
+     *
+     * @return whether this thread moved lifecycle to {@link LifecycleState#STOPPING}
+     */
+    private boolean claimStop() throws InterruptedException {
+        while (true) {
+            LifecycleState current = lifecycle.getState();
+            if (current == LifecycleState.NEW || current == LifecycleState.STOPPED) {
+                return false;
+            }
+            if (current.isStarting() || current == LifecycleState.STOPPING) {
+                lifecycle.awaitSettled(SETTLED_STATES, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } else if (lifecycle.transition(EnumSet.of(current), LifecycleState.STOPPING)) {
+                return true;
+            }
+        }
+    }
+
+    public LifecycleState getState() {
+        return lifecycle.getState();
+    }
+
+    /**
+     * Waits until lifecycle enters given state, e.g. {@link LifecycleState#PROVISIONED} when instance is started by
+     * another thread. Start states are reached also when instance is already further in its start, e.g. waiting for
+     * {@link LifecycleState#READY} returns immediately for provisioned instance
+     *
+     * @return whether state was reached, false when timeout elapsed or instance failed or stopped first
+     */
+    public boolean awaitState(LifecycleState state, long timeout, TimeUnit unit) throws InterruptedException {
+        return lifecycle.awaitReached(state, timeout, unit);
+    }
+
+    public void addLifecycleListener(LifecycleListener listener) {
+        lifecycle.addListener(listener);
+    }
+
+    public void removeLifecycleListener(LifecycleListener listener) {
+        lifecycle.removeListener(listener);
+    }
+
+    private void startResourceMonitoring() {
+        if (resourceMonitoringIntervalInMs > 0) {
+            resourceSampler = ResourceSampler.forProcess(
+                    () -> attachedDaemon != null ? attachedDaemon.getPid() : elasticServer.getPid(), resourceMonitoringIntervalInMs);
+            resourceSampler.start();
+        }
+    }
+
+    private void stopResourceMonitoring() {
+        if (resourceSampler != null) {
+            resourceSampler.stop().ifPresent(usage -> logger.info(usage.toString()));
+            resourceSampler = null;
+        }
+    }
+
+    /**
+     * Same as {@link #stop()}, but runs on lifecycle executor
+     */
+    public CompletableFuture<EmbeddedElastic> stopAsync() {
+        return CompletableFuture.supplyAsync(() -> {
+            stop();
+            return this;
+        }, lifecycleExecutor);
+    }
+
     /**
      * Index documents
      *
@@ -267,18 +805,52 @@ public final class EmbeddedElastic {
         return elasticRestClient.fetchAllDocuments(indices);
     }
 
+    /**
+     * Get resources used by Elasticsearch process (the first node of local cluster), as of the last sample
+     *
+     * @return empty when resource monitoring is disabled, /proc is not available or the process was not sampled yet
+     */
+    public Optional<ResourceUsage> getResourceUsage() {
+        ResourceSampler sampler = resourceSampler;
+        return sampler != null ? sampler.getUsage() : Optional.empty();
+    }
+
     /**
      * Get transport tcp port number used by Elasticsearch
      */
     public int getTransportTcpPort() {
-        return elasticServer.getTransportTcpPort();
+        return attachedDaemon != null ? attachedDaemon.getTransportTcpPort() : elasticServer.getTransportTcpPort();
     }
 
     /**
      * Get http port number
      */
     public int getHttpPort() {
-        return elasticServer.getHttpPort();
+        return attachedDaemon != null ? attachedDaemon.getHttpPort() : elasticServer.getHttpPort();
+    }
+
+    /**
+     * Get http port numbers of all nodes, the first one is the node returned by {@link #getHttpPort()}
+     */
+    public List<Integer> getHttpPorts() {
+        List<Integer> httpPorts = new ArrayList<>();
+        httpPorts.add(getHttpPort());
+        additionalNodes.forEach(node -> httpPorts.add(node.getHttpPort()));
+        return httpPorts;
+    }
+
+    /**
+     * Wait until all shards including replicas are allocated, which requires enough nodes to host replicas
+     */
+    public void waitForClusterGreen() {
+        elasticRestClient.waitForClusterGreen();
+    }
+
+    /**
+     * Get time spent in each phase of the most recent start, including phases skipped thanks to caching
+     */
+    public StartupReport getStartupReport() {
+        return startupReport;
     }
 
     public static final class Builder {
@@ -295,12 +867,84 @@ public final class EmbeddedElastic {
         private File downloadDirectory = null;
         private int downloaderConnectionTimeoutInMs = 3_000;
         private int downloaderReadTimeoutInMs = 300_000;
+        private int downloaderConnections = 4;
+        private String downloadChecksum = null;
+        private long downloadCacheMaxSizeInBytes = Long.MAX_VALUE;
+        private boolean pipelinedInstallation = false;
         private Proxy downloadProxy = null;
         private JavaHomeOption javaHome = JavaHomeOption.useSystem();
+        private boolean goldenImage = false;
+        private boolean directLaunch = false;
+        private boolean classDataSharing = false;
+        private ReadinessStrategy readinessStrategy = ReadinessStrategy.logScraping();
+        private OutputForwarding outputForwarding = OutputForwarding.ALL;
+        private int outputBufferSize = 1_000;
+        private Executor lifecycleExecutor = null;
+        private int nodes = 1;
+        private boolean daemonMode = false;
+        private long daemonIdleTimeoutInMs = 300_000;
+        private boolean automaticPorts = false;
+        private MemoryBackedStorage memoryBackedStorage = MemoryBackedStorage.NONE;
+        private long memoryBackedStorageCapacityInMb = 0;
+        private PerformanceProfile performanceProfile = PerformanceProfile.DEFAULT;
+        private boolean automaticJvmSizing = false;
+        private int expectedInstances = 1;
+        private long resourceMonitoringIntervalInMs = 0;
+        private long stopTimeoutInMs = 30_000;
+        private boolean backgroundCleanup = false;
 
         private Builder() {
         }
 
+        /**
+         * Independent copy, so this builder can be adjusted without affecting the original one
+         */
+        Builder copy() {
+            Builder copy = new Builder();
+            copy.installationSource = installationSource;
+            copy.plugins = new ArrayList<>(plugins);
+            copy.indices = new HashMap<>(indices);
+            copy.templates = new HashMap<>(templates);
+            copy.settings = settings;
+            copy.esJavaOpts = esJavaOpts;
+            copy.startTimeoutInMs = startTimeoutInMs;
+            copy.cleanInstallationDirectoryOnStop = cleanInstallationDirectoryOnStop;
+            copy.installationDirectory = installationDirectory;
+            copy.downloadDirectory = downloadDirectory;
+            copy.downloaderConnectionTimeoutInMs = downloaderConnectionTimeoutInMs;
+            copy.downloaderReadTimeoutInMs = downloaderReadTimeoutInMs;
+            copy.downloaderConnections = downloaderConnections;
+            copy.downloadChecksum = downloadChecksum;
+            copy.downloadCacheMaxSizeInBytes = downloadCacheMaxSizeInBytes;
+            copy.pipelinedInstallation = pipelinedInstallation;
+            copy.downloadProxy = downloadProxy;
+            copy.javaHome = javaHome;
+            copy.goldenImage = goldenImage;
+            copy.directLaunch = directLaunch;
+            copy.classDataSharing = classDataSharing;
+            copy.readinessStrategy = readinessStrategy;
+            copy.outputForwarding = outputForwarding;
+            copy.outputBufferSize = outputBufferSize;
+            copy.lifecycleExecutor = lifecycleExecutor;
+            copy.nodes = nodes;
+            copy.daemonMode = daemonMode;
+            copy.daemonIdleTimeoutInMs = daemonIdleTimeoutInMs;
+            copy.automaticPorts = automaticPorts;
+            copy.memoryBackedStorage = memoryBackedStorage;
+            copy.memoryBackedStorageCapacityInMb = memoryBackedStorageCapacityInMb;
+            copy.performanceProfile = performanceProfile;
+            copy.automaticJvmSizing = automaticJvmSizing;
+            copy.expectedInstances = expectedInstances;
+            copy.resourceMonitoringIntervalInMs = resourceMonitoringIntervalInMs;
+            copy.stopTimeoutInMs = stopTimeoutInMs;
+            copy.backgroundCleanup = backgroundCleanup;
+            return copy;
+        }
+
+        boolean hasSetting(String name) {
+            return settings.getSetting(name).isPresent();
+        }
+
         public Builder withSetting(String name, Object value) {
             settings = settings.withSetting(name, value);
             return this;
@@ -321,11 +965,30 @@ public final class EmbeddedElastic {
             return this;
         }
 
+        /**
+         * Maximum size of packages kept in download directory. Least recently used packages are removed when it is
+         * exceeded, also by other JVMs sharing the directory, except packages used in the last 10 minutes. Unbounded by
+         * default
+         */
+        public Builder withDownloadCacheSize(long maxSizeInMb) {
+            this.downloadCacheMaxSizeInBytes = maxSizeInMb * 1024 * 1024;
+            return this;
+        }
+
         public Builder withCleanInstallationDirectoryOnStop(boolean cleanInstallationDirectoryOnStop) {
             this.cleanInstallationDirectoryOnStop = cleanInstallationDirectoryOnStop;
             return this;
         }
 
+        /**
+         * Extract zip or tar.gz package while it is being downloaded, instead of after the download. Package is still
+         * stored in download directory. Disabled by default
+         */
+        public Builder withPipelinedInstallation(boolean pipelinedInstallation) {
+            this.pipelinedInstallation = pipelinedInstallation;
+            return this;
+        }
+
         /**
          * Desired version of Elasticsearch. It will be used to generate download URL to official mirrors
          */
@@ -422,6 +1085,24 @@ public final class EmbeddedElastic {
             return this;
         }
 
+        /**
+         * Number of parallel connections fetching ranges of Elasticsearch package. Interrupted download is resumed by
+         * the next start. Servers which do not support ranges are read over single connection. Defaults to 4
+         */
+        public Builder withDownloaderConnections(int connections) {
+            downloaderConnections = connections;
+            return this;
+        }
+
+        /**
+         * SHA-512 checksum, in hex, which downloaded package must match. By default package is verified against checksum
+         * published by Elastic next to the package, if it is available
+         */
+        public Builder withDownloadChecksum(String sha512) {
+            downloadChecksum = sha512;
+            return this;
+        }
+
         /**
          * Set proxy that should be used to download elastic package
          */
@@ -435,18 +1116,213 @@ public final class EmbeddedElastic {
             return this;
         }
 
+        /**
+         * Capture instance config and data directories once templates and indices are created and restore them
+         * on subsequent starts with the same configuration, so node starts with all indices already allocated
+         */
+        public Builder withGoldenImage(boolean goldenImage) {
+            this.goldenImage = goldenImage;
+            return this;
+        }
+
+        /**
+         * Start Elasticsearch JVM directly instead of through bin/elasticsearch script. Java command line is resolved
+         * once per installation and cached. Supported for Elasticsearch 5.x and newer, older versions are still
+         * started with their script
+         */
+        public Builder withDirectLaunch(boolean directLaunch) {
+            this.directLaunch = directLaunch;
+            return this;
+        }
+
+        /**
+         * Create class data sharing archive of Elasticsearch classes on first start and use it on subsequent starts
+         * to speed up JVM boot. Requires java 13 or newer to run Elasticsearch, ignored for older runtimes
+         */
+        public Builder withClassDataSharing(boolean classDataSharing) {
+            this.classDataSharing = classDataSharing;
+            return this;
+        }
+
+        /**
+         * Select how to detect that Elasticsearch is ready. Defaults to waiting for Elasticsearch to log that it has started
+         */
+        public Builder withReadinessStrategy(ReadinessStrategy readinessStrategy) {
+            this.readinessStrategy = readinessStrategy;
+            return this;
+        }
+
+        /**
+         * Select which lines of Elasticsearch output are forwarded to logger. Defaults to all lines
+         */
+        public Builder withOutputForwarding(OutputForwarding outputForwarding) {
+            this.outputForwarding = outputForwarding;
+            return this;
+        }
+
+        /**
+         * How many most recent lines of Elasticsearch output are kept to be logged when it fails to start. Defaults to 1000
+         */
+        public Builder withOutputBufferSize(int outputBufferSize) {
+            this.outputBufferSize = outputBufferSize;
+            return this;
+        }
+
+        /**
+         * Executor running {@link EmbeddedElastic#startAsync()} and {@link EmbeddedElastic#stopAsync()}. Defaults to
+         * executor shared by all instances, running on virtual threads where Java runtime supports them
+         */
+        public Builder withLifecycleExecutor(Executor lifecycleExecutor) {
+            this.lifecycleExecutor = lifecycleExecutor;
+            return this;
+        }
+
+        /**
+         * Number of nodes forming local cluster. Nodes share installation but have their own data and logs
+         * directories and ports. Defaults to 1
+         */
+        public Builder withNodes(int nodes) {
+            this.nodes = nodes;
+            return this;
+        }
+
+        /**
+         * Start Elasticsearch detached from this JVM and register it next to the installation, so other JVMs with the
+         * same configuration, e.g. test forks, attach to it instead of starting their own node. Stopping or exiting
+         * JVM only detaches from daemon, which is terminated once no JVM is attached for daemon idle timeout
+         */
+        public Builder withDaemonMode(boolean daemonMode) {
+            this.daemonMode = daemonMode;
+            return this;
+        }
+
+        /**
+         * How long daemon keeps running with no JVM attached. Defaults to 5 minutes
+         */
+        public Builder withDaemonIdleTimeout(long value, TimeUnit unit) {
+            this.daemonIdleTimeoutInMs = unit.toMillis(value);
+            return this;
+        }
+
+        /**
+         * Reserve free http and transport ports before start, unless they are set explicitly. Reservations are shared
+         * by all JVMs on the machine, so parallel test forks never get the same port. Without it Elasticsearch picks
+         * the first free port from its default range on its own
+         */
+        public Builder withAutomaticPorts(boolean automaticPorts) {
+            this.automaticPorts = automaticPorts;
+            return this;
+        }
+
+        /**
+         * Keep instance data, or whole instance directory, on memory-backed file system (/dev/shm), so indexing does
+         * not wait for disk writes and fsyncs. Instance state stays on disk when memory-backed file system is not
+         * available or has less than given capacity free
+         *
+         * @param capacityInMb space instance is expected to need, checked against free memory before start
+         */
+        public Builder withMemoryBackedStorage(MemoryBackedStorage memoryBackedStorage, long capacityInMb) {
+            this.memoryBackedStorage = memoryBackedStorage;
+            this.memoryBackedStorageCapacityInMb = capacityInMb;
+            return this;
+        }
+
+        /**
+         * Node and index settings tuned for given purpose, chosen according to Elasticsearch version. Settings set
+         * explicitly take precedence. Defaults to {@link PerformanceProfile#DEFAULT}
+         */
+        public Builder withPerformanceProfile(PerformanceProfile performanceProfile) {
+            this.performanceProfile = performanceProfile;
+            return this;
+        }
+
+        /**
+         * Choose heap, garbage collector and processor count of Elasticsearch JVM from memory and processors of the
+         * host, shared by all nodes of local cluster or instances of the pool, and by nodes already running in this JVM
+         * when the instance starts. Heap, garbage collector and processor count set with {@link #withEsJavaOpts(String)}
+         * take precedence
+         */
+        public Builder withAutomaticJvmSizing(boolean automaticJvmSizing) {
+            this.automaticJvmSizing = automaticJvmSizing;
+            return this;
+        }
+
+        /**
+         * How long should embedded-elasticsearch wait for elasticsearch to exit after termination request, before
+         * killing it. Defaults to 30 seconds
+         */
+        public Builder withStopTimeout(long value, TimeUnit unit) {
+            stopTimeoutInMs = unit.toMillis(value);
+            return this;
+        }
+
+        /**
+         * Delete instance directory in background after stop, so stop returns as soon as Elasticsearch exits. Directory
+         * is renamed first, so it never clashes with instances started later. Disabled by default
+         */
+        public Builder withBackgroundCleanup(boolean backgroundCleanup) {
+            this.backgroundCleanup = backgroundCleanup;
+            return this;
+        }
+
+        /**
+         * Sample RSS, CPU time, threads and open files of Elasticsearch process from /proc with given interval. Usage
+         * is available with {@link EmbeddedElastic#getResourceUsage()} and its summary is logged on stop. Disabled by
+         * default
+         */
+        public Builder withResourceMonitoring(long interval, TimeUnit unit) {
+            this.resourceMonitoringIntervalInMs = unit.toMillis(interval);
+            return this;
+        }
+
+        Builder withExpectedInstances(int expectedInstances) {
+            this.expectedInstances = expectedInstances;
+            return this;
+        }
+
         public EmbeddedElastic build() {
             require(installationSource != null, "You must specify elasticsearch version, or download url");
+            require(nodes > 0, "Number of nodes must be positive");
+            require(nodes == 1 || !(hasSetting(PopularProperties.HTTP_PORT) || hasSetting(PopularProperties.TRANSPORT_TCP_PORT)),
+                    "Nodes of local cluster cannot share fixed http or transport port, leave them unset");
+            require(nodes == 1 || !goldenImage, "Golden image is supported only for single node");
+            require(!daemonMode || (nodes == 1 && !goldenImage), "Daemon mode is supported only for single node without golden image");
+            require(memoryBackedStorage == MemoryBackedStorage.NONE || memoryBackedStorageCapacityInMb > 0,
+                    "Capacity of memory-backed storage must be positive");
+            require(!daemonMode || memoryBackedStorage != MemoryBackedStorage.DATA,
+                    "Daemon mode supports only whole instance in memory-backed storage");
+            require(downloaderConnections > 0, "Number of downloader connections must be positive");
+            require(downloadCacheMaxSizeInBytes > 0, "Download cache size must be positive");
+            require(outputBufferSize >= 0, "Output buffer size must not be negative");
+            InstallationDescription installationDescription = new InstallationDescription(installationSource, downloadDirectory, installationDirectory, cleanInstallationDirectoryOnStop, plugins, downloaderConnectionTimeoutInMs, downloaderReadTimeoutInMs, downloaderConnections, downloadChecksum, downloadCacheMaxSizeInBytes, pipelinedInstallation, downloadProxy);
             return new EmbeddedElastic(
                     esJavaOpts,
-                    settings,
+                    settings.withDefaults(performanceProfile.nodeSettings(installationDescription)),
                     new IndicesDescription(indices),
                     new TemplatesDescription(templates),
-                    new InstallationDescription(installationSource, downloadDirectory, installationDirectory, cleanInstallationDirectoryOnStop, plugins, downloaderConnectionTimeoutInMs, downloaderReadTimeoutInMs, downloadProxy),
+                    installationDescription,
                     startTimeoutInMs,
-                    javaHome);
+                    javaHome,
+                    goldenImage,
+                    directLaunch,
+                    classDataSharing,
+                    readinessStrategy,
+                    outputForwarding,
+                    outputBufferSize,
+                    lifecycleExecutor != null ? lifecycleExecutor : LifecycleManager.get().executor(),
+                    nodes,
+                    daemonMode,
+                    daemonIdleTimeoutInMs,
+                    automaticPorts,
+                    memoryBackedStorage,
+                    memoryBackedStorageCapacityInMb,
+                    performanceProfile,
+                    resourceMonitoringIntervalInMs,
+                    stopTimeoutInMs,
+                    backgroundCleanup,
+                    automaticJvmSizing,
+                    expectedInstances);
         }
 
     }
 }
-
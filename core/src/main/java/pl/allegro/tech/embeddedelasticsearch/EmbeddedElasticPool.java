@@ -0,0 +1,339 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static pl.allegro.tech.embeddedelasticsearch.PopularProperties.HTTP_PORT;
+import static pl.allegro.tech.embeddedelasticsearch.PopularProperties.TRANSPORT_TCP_PORT;
+import static pl.allegro.tech.embeddedelasticsearch.Require.require;
+
+/**
+ * Pool of started Elasticsearch instances sharing one configuration. Leased instance is reset when returned: indices
+ * created outside of configuration are deleted and configured ones are recreated. Instances that died are replaced
+ * in background, on the executor shared by all instances.
+ */
+public final class EmbeddedElasticPool implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedElasticPool.class);
+    private static final long LIVENESS_CHECK_INTERVAL_IN_MS = 5_000;
+
+    private final EmbeddedElastic.Builder elasticBuilder;
+    private final int size;
+    private final long leaseTimeoutInMs;
+    private final long idleTimeoutInMs;
+    private final int minIdle;
+
+    private final List<Slot> slots = new ArrayList<>();
+    private final BlockingDeque<Slot> idle = new LinkedBlockingDeque<>();
+    private final ExecutorService executor = LifecycleManager.get().executor();
+
+    private final AtomicInteger leased = new AtomicInteger();
+    private final AtomicLong leases = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong replenishments = new AtomicLong();
+    private final AtomicLong totalLeaseWaitInNanos = new AtomicLong();
+    private final AtomicLong maxLeaseWaitInNanos = new AtomicLong();
+
+    private volatile ScheduledFuture<?> maintenance;
+    private volatile boolean closed = false;
+
+    public static Builder builder(EmbeddedElastic.Builder elasticBuilder) {
+        return new Builder(elasticBuilder);
+    }
+
+    private EmbeddedElasticPool(EmbeddedElastic.Builder elasticBuilder, int size, long leaseTimeoutInMs, long idleTimeoutInMs, int minIdle) {
+        this.elasticBuilder = elasticBuilder;
+        this.size = size;
+        this.leaseTimeoutInMs = leaseTimeoutInMs;
+        this.idleTimeoutInMs = idleTimeoutInMs;
+        this.minIdle = minIdle;
+    }
+
+    /**
+     * Starts all instances in parallel and waits until they are ready
+     */
+    public EmbeddedElasticPool start() throws InterruptedException {
+        List<CompletableFuture<Void>> starting = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Slot slot = new Slot(i);
+            slots.add(slot);
+            starting.add(slot.startInstance());
+        }
+        try {
+            CompletableFuture.allOf(starting.toArray(new CompletableFuture<?>[0])).join();
+        } catch (RuntimeException e) {
+            close();
+            throw new EmbeddedElasticsearchStartupException("Failed to start pool of Elasticsearch instances", e.getCause());
+        }
+        long period = idleTimeoutInMs > 0
+                ? Math.max(Math.min(idleTimeoutInMs / 2, LIVENESS_CHECK_INTERVAL_IN_MS), 1)
+                : LIVENESS_CHECK_INTERVAL_IN_MS;
+        maintenance = LifecycleManager.get().scheduler()
+                .scheduleWithFixedDelay(this::maintainIdleInstances, period, period, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    /**
+     * Lease started instance, waiting for one to be returned if all of them are leased
+     *
+     * @throws IllegalStateException when no instance became available within lease timeout
+     */
+    public Lease lease() throws InterruptedException {
+        long startTime = System.nanoTime();
+        long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(leaseTimeoutInMs);
+        while (!closed) {
+            restartEvictedInstanceIfNeeded();
+            Slot slot = idle.pollFirst(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            if (slot == null) {
+                throw new IllegalStateException("No Elasticsearch instance available within " + leaseTimeoutInMs + " ms");
+            }
+            if (slot.instance.isAlive()) {
+                recordLease(System.nanoTime() - startTime);
+                return new Lease(slot);
+            }
+            logger.warn("Pooled Elasticsearch instance {} died, replacing it", slot.id);
+            slot.replenish();
+        }
+        throw new IllegalStateException("Pool is closed");
+    }
+
+    public PoolMetrics getMetrics() {
+        long leaseCount = leases.get();
+        return new PoolMetrics(
+                (int) slots.stream().filter(slot -> slot.running).count(),
+                idle.size(),
+                leased.get(),
+                leaseCount,
+                evictions.get(),
+                replenishments.get(),
+                leaseCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalLeaseWaitInNanos.get() / leaseCount),
+                TimeUnit.NANOSECONDS.toMillis(maxLeaseWaitInNanos.get()));
+    }
+
+    /**
+     * Stops all instances
+     */
+    @Override
+    public void close() {
+        closed = true;
+        ScheduledFuture<?> scheduledMaintenance = maintenance;
+        if (scheduledMaintenance != null) {
+            scheduledMaintenance.cancel(false);
+        }
+        idle.clear();
+        slots.forEach(Slot::stopInstance);
+    }
+
+    private void recordLease(long waitInNanos) {
+        leased.incrementAndGet();
+        leases.incrementAndGet();
+        totalLeaseWaitInNanos.addAndGet(waitInNanos);
+        maxLeaseWaitInNanos.accumulateAndGet(waitInNanos, Math::max);
+    }
+
+    /**
+     * Runs on scheduler shared by all instances, so instances are stopped and started on the executor
+     */
+    private void maintainIdleInstances() {
+        replaceDeadInstances();
+        if (idleTimeoutInMs > 0) {
+            evictIdleInstances();
+        }
+    }
+
+    private void replaceDeadInstances() {
+        for (Slot slot : idle) {
+            if (!slot.instance.isAlive() && idle.remove(slot)) {
+                logger.warn("Idle pooled Elasticsearch instance {} died, replacing it", slot.id);
+                slot.replenish();
+            }
+        }
+    }
+
+    private void evictIdleInstances() {
+        long now = System.nanoTime();
+        for (Slot slot : idle) {
+            if (idle.size() <= minIdle) {
+                return;
+            }
+            if (now - slot.idleSince > TimeUnit.MILLISECONDS.toNanos(idleTimeoutInMs) && idle.remove(slot)) {
+                logger.info("Evicting Elasticsearch instance {} idle for more than {} ms", slot.id, idleTimeoutInMs);
+                evictions.incrementAndGet();
+                CompletableFuture.runAsync(slot::stopInstance, executor);
+            }
+        }
+    }
+
+    private synchronized void restartEvictedInstanceIfNeeded() {
+        if (idle.isEmpty()) {
+            slots.stream()
+                    .filter(slot -> !slot.running && !slot.replenishing.get())
+                    .findFirst()
+                    .ifPresent(Slot::replenish);
+        }
+    }
+
+    private void giveBack(Slot slot) {
+        leased.decrementAndGet();
+        CompletableFuture.runAsync(() -> {
+            if (!slot.instance.isAlive()) {
+                throw new IllegalStateException("Pooled Elasticsearch instance " + slot.id + " died");
+            }
+            slot.instance.resetIndices();
+        }, executor).whenComplete((ignored, failure) -> {
+            if (closed) {
+                return;
+            }
+            if (failure == null) {
+                slot.makeIdle();
+            } else {
+                logger.warn("Unable to reset pooled Elasticsearch instance, replacing it", failure);
+                slot.replenish();
+            }
+        });
+    }
+
+    private class Slot {
+        private final int id;
+        private volatile EmbeddedElastic instance;
+        private volatile boolean running = false;
+        private volatile long idleSince;
+        private final AtomicBoolean replenishing = new AtomicBoolean();
+
+        Slot(int id) {
+            this.id = id;
+        }
+
+        CompletableFuture<Void> startInstance() {
+            instance = elasticBuilder.build();
+            running = true;
+            return instance.startAsync().thenRun(this::makeIdle);
+        }
+
+        void makeIdle() {
+            idleSince = System.nanoTime();
+            idle.offerLast(this);
+        }
+
+        /**
+         * Stops and starts instance again on the executor, so the caller never waits for it
+         */
+        void replenish() {
+            if (!replenishing.compareAndSet(false, true)) {
+                return;
+            }
+            replenishments.incrementAndGet();
+            CompletableFuture.runAsync(this::stopInstance, executor)
+                    .thenCompose(ignored -> closed ? CompletableFuture.completedFuture(null) : startInstance())
+                    .whenComplete((ignored, failure) -> {
+                        replenishing.set(false);
+                        if (failure != null) {
+                            logger.error("Unable to replace pooled Elasticsearch instance {}", id, failure);
+                            running = false;
+                        } else if (closed) {
+                            stopInstance();
+                        }
+                    });
+        }
+
+        void stopInstance() {
+            running = false;
+            if (instance != null) {
+                try {
+                    instance.stop();
+                } catch (RuntimeException e) {
+                    logger.warn("Unable to stop pooled Elasticsearch instance {}", id, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Instance leased from pool. Closing the lease returns instance to the pool
+     */
+    public final class Lease implements AutoCloseable {
+
+        private final Slot slot;
+        private boolean returned = false;
+
+        private Lease(Slot slot) {
+            this.slot = slot;
+        }
+
+        public EmbeddedElastic getElastic() {
+            return slot.instance;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!returned) {
+                returned = true;
+                giveBack(slot);
+            }
+        }
+    }
+
+    public static final class Builder {
+
+        private final EmbeddedElastic.Builder elasticBuilder;
+        private int size = 2;
+        private int minIdle = 1;
+        private long leaseTimeoutInMs = 60_000;
+        private long idleTimeoutInMs = 0;
+
+        private Builder(EmbeddedElastic.Builder elasticBuilder) {
+            this.elasticBuilder = elasticBuilder;
+        }
+
+        /**
+         * Number of instances kept in pool. Defaults to 2
+         */
+        public Builder withSize(int size) {
+            this.size = size;
+            return this;
+        }
+
+        /**
+         * How long {@link EmbeddedElasticPool#lease()} waits for an instance. Defaults to 60 seconds
+         */
+        public Builder withLeaseTimeout(long value, TimeUnit unit) {
+            this.leaseTimeoutInMs = unit.toMillis(value);
+            return this;
+        }
+
+        /**
+         * Instances idle for longer are stopped, as long as at least minIdle instances stay idle. Stopped instances are
+         * started again when all running ones are leased. Disabled by default
+         */
+        public Builder withIdleEviction(long idleTimeout, TimeUnit unit, int minIdle) {
+            this.idleTimeoutInMs = unit.toMillis(idleTimeout);
+            this.minIdle = minIdle;
+            return this;
+        }
+
+        /**
+         * Pooled instances always get reserved ports, see {@link EmbeddedElastic.Builder#withAutomaticPorts(boolean)}.
+         * With {@link EmbeddedElastic.Builder#withAutomaticJvmSizing(boolean)} host resources are split between at least
+         * all pooled instances
+         */
+        public EmbeddedElasticPool build() {
+            require(size > 0, "Pool size must be positive");
+            require(!elasticBuilder.hasSetting(HTTP_PORT) && !elasticBuilder.hasSetting(TRANSPORT_TCP_PORT),
+                    "Pooled instances cannot share fixed http or transport port, leave them unset");
+            EmbeddedElastic.Builder pooledBuilder = elasticBuilder.copy().withAutomaticPorts(true).withExpectedInstances(size);
+            return new EmbeddedElasticPool(pooledBuilder, size, leaseTimeoutInMs, idleTimeoutInMs, minIdle);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.SystemUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Copy of instance config and data directories captured after templates and indices were created. Restoring it lets
+ * node start with all indices already allocated instead of bootstrapping cluster and creating them again.
+ */
+class GoldenImage {
+
+    private static final Logger logger = LoggerFactory.getLogger(GoldenImage.class);
+    private static final String DATA_DIRECTORY = "data";
+    private static final List<String> SKIPPED_DIRECTORIES = Arrays.asList("logs", DATA_DIRECTORY);
+
+    private final File imageDirectory;
+
+    GoldenImage(File imagesDirectory, String fingerprint) {
+        this.imageDirectory = new File(imagesDirectory, fingerprint);
+    }
+
+    /**
+     * @param configurationFingerprint fingerprint of installation and instance settings
+     */
+    static String fingerprint(String configurationFingerprint, IndicesDescription indicesDescription, TemplatesDescription templatesDescription) {
+        List<String> parts = new ArrayList<>();
+        parts.add(configurationFingerprint);
+        indicesDescription.getIndicesNames().stream().sorted().forEach(indexName -> {
+            parts.add(indexName);
+            parts.add(indicesDescription.getIndexSettings(indexName).map(settings -> settings.toJson().toString()).orElse(""));
+        });
+        templatesDescription.getTemplatesNames().stream().sorted().forEach(templateName -> {
+            parts.add(templateName);
+            parts.add(templatesDescription.getTemplateSettings(templateName));
+        });
+        return InstallationManifest.fingerprint(parts.toArray(new String[0]));
+    }
+
+    /**
+     * Image is moved into place atomically once complete, so existing directory is always a complete image
+     */
+    boolean isAvailable() {
+        return imageDirectory.isDirectory();
+    }
+
+    void restoreTo(InstanceDirectory instanceDirectory) throws IOException {
+        logger.info("Restoring golden image {} into {}", imageDirectory, instanceDirectory);
+        cloneTree(imageDirectory, instanceDirectory.getRoot());
+        copyTree(new File(imageDirectory, DATA_DIRECTORY), instanceDirectory.getDataDirectory());
+        instanceDirectory.prepareStateDirectories();
+    }
+
+    void captureFrom(InstanceDirectory instanceDirectory) throws IOException {
+        File temporaryImage = new File(imageDirectory.getParentFile(), imageDirectory.getName() + "-" + UUID.randomUUID());
+        logger.info("Capturing golden image of {} into {}", instanceDirectory, imageDirectory);
+        try {
+            cloneTree(instanceDirectory.getRoot(), temporaryImage);
+            copyTree(instanceDirectory.getDataDirectory(), new File(temporaryImage, DATA_DIRECTORY));
+            Files.move(temporaryImage.toPath(), imageDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileSystemException e) {
+            if (!imageDirectory.isDirectory()) {
+                throw e;
+            }
+            logger.info("Golden image {} was captured by another thread/jvm", imageDirectory);
+        } finally {
+            FileUtils.deleteQuietly(temporaryImage);
+        }
+    }
+
+    /**
+     * Data directory is copied separately, as it may be kept apart from the rest of instance state
+     */
+    private void cloneTree(File source, File target) throws IOException {
+        FileUtils.forceMkdir(target);
+        File[] entries = source.listFiles();
+        if (entries == null) {
+            throw new IOException("Unable to list " + source);
+        }
+        for (File entry : entries) {
+            if (SKIPPED_DIRECTORIES.contains(entry.getName())) {
+                continue;
+            }
+            copyTree(entry, new File(target, entry.getName()));
+        }
+    }
+
+    /**
+     * Files that are written in place by Elasticsearch (translog checkpoints, cluster state, configuration) have to be
+     * copied. Copy-on-write clones are used where file system supports them.
+     */
+    private void copyTree(File source, File target) throws IOException {
+        if (!reflinkCopy(source, target)) {
+            copyTreeFallback(source.toPath(), target.toPath());
+        }
+    }
+
+    private boolean reflinkCopy(File source, File target) {
+        String[] command;
+        if (SystemUtils.IS_OS_LINUX) {
+            command = new String[]{"cp", "-R", "-p", "--reflink=auto", source.getAbsolutePath(), target.getAbsolutePath()};
+        } else if (SystemUtils.IS_OS_MAC) {
+            command = new String[]{"cp", "-R", "-p", "-c", source.getAbsolutePath(), target.getAbsolutePath()};
+        } else {
+            return false;
+        }
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            process.getInputStream().close();
+            if (process.waitFor() == 0) {
+                return true;
+            }
+        } catch (IOException e) {
+            logger.debug("Copy-on-write copy of {} failed", source, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        FileUtils.deleteQuietly(target);
+        return false;
+    }
+
+    private void copyTreeFallback(Path source, Path target) throws IOException {
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Path destination = target.resolve(source.relativize(path).toString());
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(destination);
+                } else {
+                    Files.copy(path, destination, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+            }
+        }
+    }
+}
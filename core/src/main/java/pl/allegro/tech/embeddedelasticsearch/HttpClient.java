@@ -1,5 +1,6 @@
 package pl.allegro.tech.embeddedelasticsearch;
 
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.impl.client.CloseableHttpClient;
@@ -9,11 +10,24 @@ import java.io.IOException;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
-class HttpClient {
+class HttpClient implements AutoCloseable {
 
     private static final Consumer<CloseableHttpResponse> noop = x -> {};
 
-    private final CloseableHttpClient internalHttpClient = HttpClients.createDefault();
+    private final CloseableHttpClient internalHttpClient;
+
+    HttpClient() {
+        this.internalHttpClient = HttpClients.createDefault();
+    }
+
+    HttpClient(int connectTimeoutInMs, int socketTimeoutInMs) {
+        this.internalHttpClient = HttpClients.custom()
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(connectTimeoutInMs)
+                        .setSocketTimeout(socketTimeoutInMs)
+                        .build())
+                .build();
+    }
 
     void execute(HttpRequestBase request) {
         execute(request, noop);
@@ -36,6 +50,15 @@ class HttpClient {
         }
     }
 
+    @Override
+    public void close() {
+        try {
+            internalHttpClient.close();
+        } catch (IOException e) {
+            throw new HttpRequestException(e);
+        }
+    }
+
     static class HttpRequestException extends RuntimeException {
         HttpRequestException(IOException cause) {
             super(cause);
@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -119,6 +120,31 @@ public class IndexSettings {
         return objectNode;
     }
 
+    /**
+     * @param defaultSettings index settings without "index." prefix, added unless they are already set in any form
+     */
+    ObjectNode toJson(Map<String, Object> defaultSettings) {
+        ObjectNode objectNode = toJson();
+        ObjectNode settingsObject = settings
+                .filter(JsonNode::isObject)
+                .map(json -> ((ObjectNode) json).deepCopy())
+                .orElseGet(OBJECT_MAPPER::createObjectNode);
+        defaultSettings.forEach((name, value) -> {
+            if (!isSet(settingsObject, name)) {
+                settingsObject.set("index." + name, OBJECT_MAPPER.valueToTree(value));
+            }
+        });
+        objectNode.set("settings", settingsObject);
+        return objectNode;
+    }
+
+    private static boolean isSet(ObjectNode settingsObject, String name) {
+        return settingsObject.has(name)
+                || settingsObject.has("index." + name)
+                || !settingsObject.at("/index/" + name.replace(".", "/")).isMissingNode()
+                || !settingsObject.at("/" + name.replace(".", "/")).isMissingNode();
+    }
+
     private ObjectNode prepareMappingsObject() {
         ObjectNode mappingsObject = OBJECT_MAPPER.createObjectNode();
         types.forEach(type -> mappingsObject.set(type.getType(), type.getMapping()));
@@ -20,6 +20,10 @@ class InstallationDescription {
     private final File downloadDirectory;
     private final int downloaderConnectionTimeoutInMs;
     private final int downloaderReadTimeoutInMs;
+    private final int downloaderConnections;
+    private final String downloadChecksum;
+    private final long downloadCacheMaxSizeInBytes;
+    private final boolean pipelinedInstallation;
     private final Proxy downloadProxy;
 
     InstallationDescription(
@@ -29,7 +33,12 @@ class InstallationDescription {
             boolean cleanInstallationDirectoryOnStop,
             List<Plugin> plugins,
             int downloaderConnectionTimeoutInMs,
-            int downloaderReadTimeoutInMs, Proxy downloadProxy) {
+            int downloaderReadTimeoutInMs,
+            int downloaderConnections,
+            String downloadChecksum,
+            long downloadCacheMaxSizeInBytes,
+            boolean pipelinedInstallation,
+            Proxy downloadProxy) {
         this.installationSource = installationSource;
         this.plugins = plugins;
         this.cleanInstallationDirectoryOnStop = cleanInstallationDirectoryOnStop;
@@ -37,6 +46,10 @@ class InstallationDescription {
         this.downloadDirectory = ObjectUtils.firstNonNull(downloadDirectory, DEFAULT_DOWNLOAD_DIR);
         this.downloaderConnectionTimeoutInMs = downloaderConnectionTimeoutInMs;
         this.downloaderReadTimeoutInMs = downloaderReadTimeoutInMs;
+        this.downloaderConnections = downloaderConnections;
+        this.downloadChecksum = downloadChecksum;
+        this.downloadCacheMaxSizeInBytes = downloadCacheMaxSizeInBytes;
+        this.pipelinedInstallation = pipelinedInstallation;
         this.downloadProxy = downloadProxy;
     }
 
@@ -60,6 +73,14 @@ class InstallationDescription {
         return getVersion().startsWith("2.");
     }
 
+    boolean versionIs5x() {
+        return getVersion().startsWith("5.");
+    }
+
+    boolean versionIs6x() {
+        return getVersion().startsWith("6.");
+    }
+
     boolean isCleanInstallationDirectoryOnStop() {
         return cleanInstallationDirectoryOnStop;
     }
@@ -80,6 +101,22 @@ class InstallationDescription {
         return downloaderReadTimeoutInMs;
     }
 
+    int getDownloaderConnections() {
+        return downloaderConnections;
+    }
+
+    String getDownloadChecksum() {
+        return downloadChecksum;
+    }
+
+    long getDownloadCacheMaxSizeInBytes() {
+        return downloadCacheMaxSizeInBytes;
+    }
+
+    boolean isPipelinedInstallation() {
+        return pipelinedInstallation;
+    }
+
     Proxy getDownloadProxy() {
         return downloadProxy;
     }
@@ -0,0 +1,100 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Describes complete installation of Elasticsearch. Manifest is written as a last step of installation, so its presence
+ * together with matching fingerprint and file sizes means that installation can be reused as-is.
+ */
+class InstallationManifest {
+
+    private static final Logger logger = LoggerFactory.getLogger(InstallationManifest.class);
+    private static final String MANIFEST_FILE_NAME = ".embedded-elasticsearch-manifest";
+    private static final String FINGERPRINT_PREFIX = "fingerprint=";
+    private static final List<String> INSTANCE_STATE_DIRECTORIES = Arrays.asList("data", "logs");
+
+    private final File installationDirectory;
+
+    InstallationManifest(File installationDirectory) {
+        this.installationDirectory = installationDirectory;
+    }
+
+    static String fingerprint(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                digest.update(part.getBytes(UTF_8));
+                digest.update((byte) 0);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    boolean matches(String fingerprint) throws IOException {
+        File manifestFile = manifestFile();
+        if (!manifestFile.isFile()) {
+            return false;
+        }
+        List<String> lines = FileUtils.readLines(manifestFile, UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(FINGERPRINT_PREFIX + fingerprint)) {
+            logger.info("Installation in {} was made with different configuration", installationDirectory);
+            return false;
+        }
+        for (String entry : lines.subList(1, lines.size())) {
+            int separator = entry.indexOf(' ');
+            long expectedSize = Long.parseLong(entry.substring(0, separator));
+            File file = new File(installationDirectory, entry.substring(separator + 1));
+            if (!file.isFile() || file.length() != expectedSize) {
+                logger.info("Installation in {} is incomplete or corrupted, {} does not match manifest", installationDirectory, file);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void write(String fingerprint) throws IOException {
+        Path root = installationDirectory.toPath();
+        List<String> lines = new ArrayList<>();
+        lines.add(FINGERPRINT_PREFIX + fingerprint);
+        try (Stream<Path> files = Files.walk(root)) {
+            lines.addAll(files
+                    .filter(Files::isRegularFile)
+                    .filter(file -> !isInstanceState(root.relativize(file)))
+                    .filter(file -> !file.getFileName().toString().equals(MANIFEST_FILE_NAME))
+                    .map(file -> file.toFile().length() + " " + root.relativize(file).toString().replace(File.separatorChar, '/'))
+                    .sorted()
+                    .collect(Collectors.toList()));
+        }
+        FileUtils.writeLines(manifestFile(), UTF_8.name(), lines, "\n");
+    }
+
+    private static boolean isInstanceState(Path relativePath) {
+        return INSTANCE_STATE_DIRECTORIES.contains(relativePath.getName(0).toString());
+    }
+
+    private File manifestFile() {
+        return new File(installationDirectory, MANIFEST_FILE_NAME);
+    }
+}
@@ -0,0 +1,153 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * State of a single Elasticsearch instance: its own config, data and logs directories. Distribution in installation
+ * directory is shared by all instances and is not modified once installed, so instances of the same installation can
+ * run concurrently. Data directory may be kept apart from the rest of instance state, e.g. on memory-backed file system.
+ */
+class InstanceDirectory {
+
+    private static final String DELETED_SUFFIX = ".deleted-";
+
+    private final File root;
+    private final File dataRoot;
+
+    private InstanceDirectory(File root, File dataRoot) {
+        this.root = root;
+        this.dataRoot = dataRoot;
+    }
+
+    /**
+     * Creates empty directory with unique name, so instances created concurrently by threads or processes never clash
+     */
+    static InstanceDirectory create(File instancesDirectory, String namePrefix) throws IOException {
+        File root = createUniqueDirectory(instancesDirectory, namePrefix);
+        return new InstanceDirectory(root, root);
+    }
+
+    /**
+     * Creates instance with data directory placed under separate instances directory
+     */
+    static InstanceDirectory create(File instancesDirectory, File dataInstancesDirectory, String namePrefix) throws IOException {
+        File root = createUniqueDirectory(instancesDirectory, namePrefix);
+        try {
+            return new InstanceDirectory(root, createUniqueDirectory(dataInstancesDirectory, namePrefix));
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(root);
+            throw e;
+        }
+    }
+
+    static InstanceDirectory existing(File root) {
+        return new InstanceDirectory(root, root);
+    }
+
+    private static File createUniqueDirectory(File instancesDirectory, String namePrefix) throws IOException {
+        FileUtils.forceMkdir(instancesDirectory);
+        sweepDeleted(instancesDirectory, LifecycleManager.get().executor());
+        return Files.createTempDirectory(instancesDirectory.toPath(), namePrefix + "-").toFile();
+    }
+
+    /**
+     * Copies default configuration of the distribution and writes instance settings to its elasticsearch.yml
+     */
+    void configure(File installationDirectory, InstanceSettings instanceSettings) throws IOException {
+        FileUtils.copyDirectory(new File(installationDirectory, "config"), getConfigDirectory());
+        FileUtils.writeStringToFile(new File(getConfigDirectory(), "elasticsearch.yml"), instanceSettings.toYaml(), UTF_8);
+        prepareStateDirectories();
+    }
+
+    void prepareStateDirectories() throws IOException {
+        FileUtils.forceMkdir(getDataDirectory());
+        FileUtils.forceMkdir(getLogsDirectory());
+        FileUtils.forceMkdir(getTmpDirectory());
+    }
+
+    File getRoot() {
+        return root;
+    }
+
+    File getConfigDirectory() {
+        return new File(root, "config");
+    }
+
+    File getDataDirectory() {
+        return new File(dataRoot, "data");
+    }
+
+    File getLogsDirectory() {
+        return new File(root, "logs");
+    }
+
+    /**
+     * Used as ES_TMPDIR, so temporary files of Elasticsearch are deleted together with the instance
+     */
+    File getTmpDirectory() {
+        return new File(root, "tmp");
+    }
+
+    /**
+     * @return whether data directory is kept apart from the rest of instance state
+     */
+    boolean hasSeparateDataRoot() {
+        return !dataRoot.equals(root);
+    }
+
+    void delete() throws IOException {
+        if (hasSeparateDataRoot()) {
+            FileUtils.deleteDirectory(dataRoot);
+        }
+        FileUtils.deleteDirectory(root);
+    }
+
+    /**
+     * Renames directories out of the way and deletes them on given executor. Falls back to deleting them in place
+     * when they cannot be renamed, e.g. because files are still open on Windows
+     */
+    void deleteInBackground(Executor executor) throws IOException {
+        List<File> renamed = new ArrayList<>();
+        for (File directory : hasSeparateDataRoot() ? Arrays.asList(dataRoot, root) : Collections.singletonList(root)) {
+            if (!directory.exists()) {
+                continue;
+            }
+            File target = new File(directory.getParentFile(), directory.getName() + DELETED_SUFFIX + UUID.randomUUID());
+            try {
+                Files.move(directory.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                renamed.add(target);
+            } catch (IOException e) {
+                FileUtils.deleteDirectory(directory);
+            }
+        }
+        renamed.forEach(directory -> executor.execute(() -> FileUtils.deleteQuietly(directory)));
+    }
+
+    /**
+     * Deletes directories left by background deletion interrupted by JVM exit
+     */
+    static void sweepDeleted(File instancesDirectory, Executor executor) {
+        File[] deleted = instancesDirectory.listFiles((directory, name) -> name.contains(DELETED_SUFFIX));
+        if (deleted != null) {
+            Arrays.stream(deleted).forEach(directory -> executor.execute(() -> FileUtils.deleteQuietly(directory)));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return root.toString();
+    }
+}
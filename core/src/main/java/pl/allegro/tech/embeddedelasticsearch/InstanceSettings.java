@@ -6,7 +6,11 @@ import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+
+import static java.util.stream.Collectors.toList;
 
 class InstanceSettings {
 
@@ -28,6 +32,31 @@ class InstanceSettings {
         return new InstanceSettings(extendedSettings);
     }
 
+    /**
+     * @return settings extended with given defaults, settings already present take precedence
+     */
+    InstanceSettings withDefaults(InstanceSettings defaults) {
+        Map<String, Object> extendedSettings = new HashMap<>();
+        extendedSettings.putAll(defaults.settings);
+        extendedSettings.putAll(settings);
+        return new InstanceSettings(extendedSettings);
+    }
+
+    Optional<Object> getSetting(String key) {
+        return Optional.ofNullable(settings.get(key));
+    }
+
+    /**
+     * Settings in form of command line arguments of bin/elasticsearch, which are applied on top of elasticsearch.yml
+     *
+     * @param legacySyntax whether to use -Des.key=value syntax of Elasticsearch 1.x and 2.x instead of -Ekey=value
+     */
+    List<String> toCommandLineArguments(boolean legacySyntax) {
+        return settings.entrySet().stream()
+                .map(setting -> (legacySyntax ? "-Des." : "-E") + setting.getKey() + "=" + setting.getValue())
+                .collect(toList());
+    }
+
     String toYaml() {
         try {
             return yamlObjectMapper.writeValueAsString(settings);
@@ -0,0 +1,48 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lock exclusive among threads of this JVM and among processes. File locks are held on behalf of the whole JVM, so
+ * threads are serialized with an in-JVM lock first. Used also by {@link DaemonReaper}, so it must not depend on any
+ * library.
+ */
+class InterProcessLock {
+
+    private static final Map<String, ReentrantLock> JVM_LOCKS = new ConcurrentHashMap<>();
+
+    private final File lockFile;
+
+    InterProcessLock(File lockFile) {
+        this.lockFile = lockFile;
+    }
+
+    <T> T locked(LockedAction<T> action) throws IOException, InterruptedException {
+        ReentrantLock jvmLock = JVM_LOCKS.computeIfAbsent(lockFile.getAbsolutePath(), path -> new ReentrantLock());
+        jvmLock.lockInterruptibly();
+        try {
+            lockFile.getParentFile().mkdirs();
+            try (FileChannel channel = new RandomAccessFile(lockFile, "rw").getChannel()) {
+                FileLock fileLock = channel.lock();
+                try {
+                    return action.run();
+                } finally {
+                    fileLock.release();
+                }
+            }
+        } finally {
+            jvmLock.unlock();
+        }
+    }
+
+    interface LockedAction<T> {
+        T run() throws IOException, InterruptedException;
+    }
+}
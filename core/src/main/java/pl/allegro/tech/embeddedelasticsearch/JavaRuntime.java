@@ -0,0 +1,56 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.lang3.SystemUtils.IS_OS_WINDOWS;
+
+/**
+ * Java runtime that will be used to run Elasticsearch, resolved the same way as Elasticsearch startup scripts do it
+ */
+class JavaRuntime {
+
+    private static final Pattern VERSION_PATTERN = Pattern.compile("version \"(1\\.)?(\\d+)");
+
+    private final String executable;
+    private volatile int majorVersion = -1;
+
+    private JavaRuntime(String executable) {
+        this.executable = executable;
+    }
+
+    static JavaRuntime of(JavaHomeOption javaHome) {
+        String javaHomeValue = javaHome.shouldBeSet() ? javaHome.getValue() : System.getenv("JAVA_HOME");
+        if (javaHomeValue == null || javaHomeValue.isEmpty()) {
+            return new JavaRuntime("java");
+        }
+        return new JavaRuntime(new File(new File(javaHomeValue, "bin"), IS_OS_WINDOWS ? "java.exe" : "java").getAbsolutePath());
+    }
+
+    String getExecutable() {
+        return executable;
+    }
+
+    int getMajorVersion() throws IOException, InterruptedException {
+        if (majorVersion == -1) {
+            majorVersion = detectMajorVersion();
+        }
+        return majorVersion;
+    }
+
+    private int detectMajorVersion() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(executable, "-version").redirectErrorStream(true).start();
+        String output = IOUtils.toString(process.getInputStream(), UTF_8);
+        process.waitFor();
+        Matcher matcher = VERSION_PATTERN.matcher(output);
+        if (!matcher.find()) {
+            throw new IOException("Unable to determine version of java " + executable + " from output:\n" + output);
+        }
+        return Integer.parseInt(matcher.group(2));
+    }
+}
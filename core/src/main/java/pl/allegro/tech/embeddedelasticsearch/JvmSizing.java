@@ -0,0 +1,89 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Heap, garbage collector and processor count of Elasticsearch JVM chosen from host resources shared by all instances
+ * expected to run concurrently. Half of host memory is left to the operating system, page cache and test JVMs, the
+ * other half is split between instances, and each instance gives half of its share to the heap, as Elasticsearch
+ * recommends.
+ */
+class JvmSizing {
+
+    private static final long MB = 1024 * 1024;
+    private static final long MIN_HEAP_IN_MB = 128;
+    private static final long MAX_HEAP_IN_MB = 1024;
+    private static final long SERIAL_GC_MAX_HEAP_IN_MB = 512;
+    private static final List<String> SERIAL_GC_OPTIONS = Arrays.asList(
+            "-XX:+IgnoreUnrecognizedVMOptions", "-XX:-UseConcMarkSweepGC", "-XX:-UseParNewGC", "-XX:-UseG1GC", "-XX:+UseSerialGC");
+
+    private final long totalMemoryInBytes;
+    private final int processors;
+    private final int instances;
+
+    JvmSizing(long totalMemoryInBytes, int processors, int instances) {
+        this.totalMemoryInBytes = totalMemoryInBytes;
+        this.processors = processors;
+        this.instances = Math.max(instances, 1);
+    }
+
+    /**
+     * @param instances number of Elasticsearch JVMs expected to run concurrently
+     */
+    static JvmSizing ofHost(int instances) {
+        return new JvmSizing(totalMemoryInBytes(), Runtime.getRuntime().availableProcessors(), instances);
+    }
+
+    /**
+     * @param startingNodes number of Elasticsearch JVMs being started
+     * @param runningNodes number of Elasticsearch JVMs already running, registered in {@link LifecycleManager}
+     * @param expectedInstances number of Elasticsearch JVMs expected to run concurrently, e.g. all nodes of a pool,
+     *                          used as a floor, as instances of the pool may not have started yet
+     */
+    static int concurrentInstances(int startingNodes, int runningNodes, int expectedInstances) {
+        return Math.max(expectedInstances, startingNodes + runningNodes);
+    }
+
+    long getHeapInMb() {
+        long heapInMb = totalMemoryInBytes / 2 / instances / 2 / MB;
+        return Math.max(MIN_HEAP_IN_MB, Math.min(MAX_HEAP_IN_MB, heapInMb));
+    }
+
+    int getProcessors() {
+        return Math.max(1, processors / instances);
+    }
+
+    /**
+     * Sized options are put before options given by the user, and are left out when the user already sets heap,
+     * garbage collector or processor count
+     */
+    String mergeWith(String esJavaOpts) {
+        List<String> userOptions = Arrays.asList(esJavaOpts.trim().split("\\s+"));
+        List<String> options = new ArrayList<>();
+        if (userOptions.stream().noneMatch(option -> option.startsWith("-Xmx") || option.startsWith("-Xms"))) {
+            options.add("-Xms" + getHeapInMb() + "m");
+            options.add("-Xmx" + getHeapInMb() + "m");
+        }
+        if (getHeapInMb() <= SERIAL_GC_MAX_HEAP_IN_MB && userOptions.stream().noneMatch(option -> option.matches("-XX:[+-]Use\\w+GC"))) {
+            options.addAll(SERIAL_GC_OPTIONS);
+        }
+        if (getProcessors() < processors && userOptions.stream().noneMatch(option -> option.startsWith("-XX:ActiveProcessorCount="))) {
+            options.add("-XX:+IgnoreUnrecognizedVMOptions");
+            options.add("-XX:ActiveProcessorCount=" + getProcessors());
+        }
+        return (String.join(" ", options.stream().distinct().toArray(String[]::new)) + " " + esJavaOpts).trim();
+    }
+
+    private static long totalMemoryInBytes() {
+        OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+        if (operatingSystem instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) operatingSystem).getTotalPhysicalMemorySize();
+        }
+        // default max heap is a quarter of physical memory
+        return Runtime.getRuntime().maxMemory() * 4;
+    }
+}
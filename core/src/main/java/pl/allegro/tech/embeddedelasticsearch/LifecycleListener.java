@@ -0,0 +1,10 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+/**
+ * Notified about every transition of {@link EmbeddedElastic} lifecycle, on the thread which made the transition
+ */
+@FunctionalInterface
+public interface LifecycleListener {
+
+    void onTransition(LifecycleState from, LifecycleState to);
+}
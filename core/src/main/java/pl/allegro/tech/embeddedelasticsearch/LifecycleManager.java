@@ -0,0 +1,135 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Process-wide registry of running instances and executor shared by all of them. Instances register action stopping
+ * them when they start and unregister it when they stop, so a single shutdown hook stops everything that is still
+ * running in parallel, no matter how many times instances were restarted. Process output, readiness probes and
+ * lifecycle operations run on the shared executor, which uses virtual threads when Java runtime supports them. Short
+ * periodic tasks, such as resource sampling, share a single scheduler thread.
+ */
+class LifecycleManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(LifecycleManager.class);
+    private static final LifecycleManager INSTANCE = new LifecycleManager(createExecutor());
+
+    private final ExecutorService executor;
+    private final Set<Registration> registrations = ConcurrentHashMap.newKeySet();
+    private boolean shutdownHookInstalled = false;
+    private ScheduledExecutorService scheduler;
+
+    LifecycleManager(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    static LifecycleManager get() {
+        return INSTANCE;
+    }
+
+    ExecutorService executor() {
+        return executor;
+    }
+
+    /**
+     * Started on first use, so processes which never schedule anything do not get its thread
+     */
+    synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "EmbeddedElsScheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+
+    /**
+     * @param stopAction run at JVM exit unless registration is closed before
+     */
+    Registration register(String name, Runnable stopAction) {
+        Registration registration = new Registration(name, stopAction);
+        registrations.add(registration);
+        installShutdownHook();
+        return registration;
+    }
+
+    int getRegistrationsCount() {
+        return registrations.size();
+    }
+
+    /**
+     * Runs stop actions of all registered instances in parallel and waits for them
+     */
+    void stopAll() {
+        List<CompletableFuture<Void>> stopping = new ArrayList<>();
+        for (Registration registration : new ArrayList<>(registrations)) {
+            stopping.add(CompletableFuture.runAsync(registration::stop, executor));
+        }
+        CompletableFuture.allOf(stopping.toArray(new CompletableFuture<?>[0]))
+                .exceptionally(e -> null)
+                .join();
+    }
+
+    private synchronized void installShutdownHook() {
+        if (!shutdownHookInstalled) {
+            Runtime.getRuntime().addShutdownHook(new Thread(this::stopAll, "ElsLifecycleShutdown"));
+            shutdownHookInstalled = true;
+        }
+    }
+
+    /**
+     * Virtual threads are looked up reflectively, as library is compiled for Java 8
+     */
+    private static ExecutorService createExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "EmbeddedEls");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    final class Registration implements AutoCloseable {
+
+        private final String name;
+        private final Runnable stopAction;
+
+        private Registration(String name, Runnable stopAction) {
+            this.name = name;
+            this.stopAction = stopAction;
+        }
+
+        private void stop() {
+            try {
+                stopAction.run();
+            } catch (RuntimeException e) {
+                logger.warn("Unable to stop " + name + " at JVM exit", e);
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Instance was stopped, nothing to do at JVM exit
+         */
+        @Override
+        public void close() {
+            registrations.remove(this);
+        }
+    }
+}
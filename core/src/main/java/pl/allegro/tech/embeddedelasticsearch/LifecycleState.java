@@ -0,0 +1,44 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+/**
+ * state of {@link EmbeddedElastic} lifecycle
+ */
+public enum LifecycleState {
+    /**
+     * built, never started
+     */
+    NEW,
+    /**
+     * downloading and installing Elasticsearch, preparing instance directory
+     */
+    INSTALLING,
+    /**
+     * Elasticsearch JVM is starting, skipped when attaching to running daemon
+     */
+    BOOTING,
+    /**
+     * Elasticsearch answers requests, templates and indices are not created yet
+     */
+    READY,
+    /**
+     * templates and indices are created, instance is ready for tests
+     */
+    PROVISIONED,
+    STOPPING,
+    /**
+     * stopped, may be started again
+     */
+    STOPPED,
+    /**
+     * start or stop failed, may be stopped to release what was started, or started again
+     */
+    FAILED;
+
+    boolean isIdle() {
+        return this == NEW || this == STOPPED || this == FAILED;
+    }
+
+    boolean isStarting() {
+        return this == INSTALLING || this == BOOTING || this == READY;
+    }
+}
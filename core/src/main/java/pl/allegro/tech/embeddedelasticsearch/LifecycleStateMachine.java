@@ -0,0 +1,126 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lifecycle state changed with compare-and-set, so exactly one thread wins a start or stop. Other threads wait for
+ * transitions on futures instead of locks.
+ */
+class LifecycleStateMachine {
+
+    private static final Logger logger = LoggerFactory.getLogger(LifecycleStateMachine.class);
+
+    private final AtomicReference<LifecycleState> state = new AtomicReference<>(LifecycleState.NEW);
+    private final List<LifecycleListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile Throwable failure;
+
+    LifecycleState getState() {
+        return state.get();
+    }
+
+    void addListener(LifecycleListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(LifecycleListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return whether current state was one of expected states and this thread moved it to target state
+     */
+    boolean transition(Set<LifecycleState> expected, LifecycleState target) {
+        while (true) {
+            LifecycleState current = state.get();
+            if (!expected.contains(current)) {
+                return false;
+            }
+            if (state.compareAndSet(current, target)) {
+                notifyListeners(current, target);
+                return true;
+            }
+        }
+    }
+
+    void advance(LifecycleState target) {
+        LifecycleState previous = state.getAndSet(target);
+        notifyListeners(previous, target);
+    }
+
+    void fail(Throwable cause) {
+        failure = cause;
+        advance(LifecycleState.FAILED);
+    }
+
+    /**
+     * Waits until given state is entered, or until lifecycle settles in another state from which given state can be
+     * reached only by starting or stopping instance again
+     *
+     * @return state lifecycle settled in, current state if it did not settle within timeout
+     */
+    LifecycleState awaitSettled(Set<LifecycleState> settled, long timeout, TimeUnit unit) throws InterruptedException {
+        CompletableFuture<LifecycleState> future = new CompletableFuture<>();
+        LifecycleListener listener = (from, to) -> {
+            if (settled.contains(to)) {
+                future.complete(to);
+            }
+        };
+        listeners.add(listener);
+        try {
+            LifecycleState current = state.get();
+            if (settled.contains(current)) {
+                return current;
+            }
+            return future.get(timeout, unit);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            return state.get();
+        } finally {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * Start states count as reached by any later start state, other states only by themselves
+     *
+     * @return whether given state was reached, false when timeout elapsed or instance failed or stopped first
+     */
+    boolean awaitReached(LifecycleState target, long timeout, TimeUnit unit) throws InterruptedException {
+        Set<LifecycleState> reached = target.isStarting() || target == LifecycleState.PROVISIONED
+                ? EnumSet.range(target, LifecycleState.PROVISIONED)
+                : EnumSet.of(target);
+        Set<LifecycleState> settled = EnumSet.of(LifecycleState.STOPPED, LifecycleState.FAILED);
+        settled.addAll(reached);
+        return reached.contains(awaitSettled(settled, timeout, unit));
+    }
+
+    Throwable getFailure() {
+        return failure;
+    }
+
+    private void notifyListeners(LifecycleState from, LifecycleState to) {
+        if (from == to) {
+            return;
+        }
+        logger.debug("Elasticsearch lifecycle {} -> {}", from, to);
+        for (LifecycleListener listener : listeners) {
+            try {
+                listener.onTransition(from, to);
+            } catch (RuntimeException e) {
+                logger.warn("Lifecycle listener failed on transition {} -> {}", from, to, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+/**
+ * select which part of instance state is kept on memory-backed file system (e.g. /dev/shm), where writes and fsyncs
+ * do not hit the disk
+ */
+public enum MemoryBackedStorage {
+    /**
+     * default behavior, instance state is kept on disk next to the installation
+     */
+    NONE,
+    /**
+     * keep only data directory (indices and translog) in memory
+     */
+    DATA,
+    /**
+     * keep whole instance directory (config, data and logs) in memory
+     */
+    INSTANCE
+}
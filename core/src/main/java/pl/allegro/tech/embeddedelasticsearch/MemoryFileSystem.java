@@ -0,0 +1,47 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Optional;
+
+/**
+ * Memory-backed file system used for instance state. Shared memory file system has no per-directory quota, so
+ * capacity declared by the user is only checked against its free space before every start, it is not enforced while
+ * the instance runs.
+ */
+class MemoryFileSystem {
+
+    private static final Logger logger = LoggerFactory.getLogger(MemoryFileSystem.class);
+    private static final File SHARED_MEMORY_DIRECTORY = new File("/dev/shm");
+    private static final long MB = 1024 * 1024;
+
+    private final File mountPoint;
+
+    MemoryFileSystem(File mountPoint) {
+        this.mountPoint = mountPoint;
+    }
+
+    static MemoryFileSystem sharedMemory() {
+        return new MemoryFileSystem(SHARED_MEMORY_DIRECTORY);
+    }
+
+    /**
+     * @return directory for instances on memory-backed file system, empty when file system is not available or has
+     * less than required free space, in which case instance state stays on disk
+     */
+    Optional<File> instancesDirectory(long requiredBytes) {
+        if (!mountPoint.isDirectory() || !mountPoint.canWrite()) {
+            logger.warn("Memory-backed file system {} is not available, instance state stays on disk", mountPoint);
+            return Optional.empty();
+        }
+        long usableBytes = mountPoint.getUsableSpace();
+        if (usableBytes < requiredBytes) {
+            logger.warn("Memory-backed file system {} has {} MB free, {} MB required, instance state stays on disk",
+                    mountPoint, usableBytes / MB, requiredBytes / MB);
+            return Optional.empty();
+        }
+        return Optional.of(new File(mountPoint, "embedded-elasticsearch"));
+    }
+}
@@ -0,0 +1,19 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+/**
+ * select which lines of Elasticsearch output are forwarded to embedded-elasticsearch logger
+ */
+public enum OutputForwarding {
+    /**
+     * keep output only in buffer, which is dumped when Elasticsearch fails to start
+     */
+    NONE,
+    /**
+     * forward only warnings and errors, together with stack traces that follow them
+     */
+    WARNINGS,
+    /**
+     * default behavior, forward every line
+     */
+    ALL
+}
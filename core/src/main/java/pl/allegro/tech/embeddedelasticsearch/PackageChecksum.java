@@ -0,0 +1,74 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Proxy;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * SHA-512 checksum of downloaded package. Elastic publishes it in a file named after the package with .sha512 suffix,
+ * containing hex digest optionally followed by the file name.
+ */
+class PackageChecksum {
+
+    private static final Logger logger = LoggerFactory.getLogger(PackageChecksum.class);
+    private static final String ALGORITHM = "SHA-512";
+    private static final String PUBLISHED_CHECKSUM_SUFFIX = ".sha512";
+
+    private PackageChecksum() {
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " is not supported by this JVM", e);
+        }
+    }
+
+    static String toHex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    static String normalize(String checksum) {
+        return checksum.trim().split("\\s+")[0].toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return checksum published next to the package, empty when package is not downloaded over HTTP or checksum is
+     * not available, e.g. for versions older than 6.x
+     */
+    static Optional<String> published(URL packageUrl, int connectionTimeoutInMs, int readTimeoutInMs, Proxy proxy) {
+        if (!packageUrl.getProtocol().startsWith("http")) {
+            return Optional.empty();
+        }
+        try {
+            URL checksumUrl = new URL(packageUrl.toString() + PUBLISHED_CHECKSUM_SUFFIX);
+            URLConnection connection = proxy != null ? checksumUrl.openConnection(proxy) : checksumUrl.openConnection();
+            connection.setConnectTimeout(connectionTimeoutInMs);
+            connection.setReadTimeout(readTimeoutInMs);
+            try (InputStream input = connection.getInputStream()) {
+                String content = IOUtils.toString(input, UTF_8);
+                return content.trim().isEmpty() ? Optional.empty() : Optional.of(normalize(content));
+            }
+        } catch (IOException e) {
+            logger.warn("Checksum of {} is not available, package will not be verified: {}", packageUrl, e.toString());
+            return Optional.empty();
+        }
+    }
+}
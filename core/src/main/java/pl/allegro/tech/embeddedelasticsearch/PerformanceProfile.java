@@ -0,0 +1,68 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * select node and index settings applied on top of Elasticsearch defaults. Settings passed with
+ * {@link EmbeddedElastic.Builder#withSetting(String, Object)} or with index settings always take precedence.
+ */
+public enum PerformanceProfile {
+    /**
+     * default behavior, Elasticsearch defaults are used
+     */
+    DEFAULT {
+        @Override
+        InstanceSettings nodeSettings(InstallationDescription installationDescription) {
+            return new InstanceSettings();
+        }
+
+        @Override
+        Map<String, Object> indexSettings(InstallationDescription installationDescription) {
+            return Collections.emptyMap();
+        }
+    },
+    /**
+     * trade durability and concurrency for speed of tests: disk watermarks and memory locking are disabled, thread
+     * pools are sized for at most 2 processors, and indices are created with single shard, no replicas, asynchronous
+     * translog and refresh interval of 30 seconds (documents indexed through {@link EmbeddedElastic} are refreshed
+     * explicitly)
+     */
+    TEST_FAST {
+        @Override
+        InstanceSettings nodeSettings(InstallationDescription installationDescription) {
+            boolean legacy = installationDescription.versionIs1x() || installationDescription.versionIs2x();
+            boolean processorsSettingRenamed = !legacy && !installationDescription.versionIs5x() && !installationDescription.versionIs6x();
+            return new InstanceSettings()
+                    .withSetting("cluster.routing.allocation.disk.threshold_enabled", false)
+                    .withSetting(legacy ? "bootstrap.mlockall" : "bootstrap.memory_lock", false)
+                    .withSetting(processorsSettingRenamed ? "node.processors" : "processors",
+                            Math.min(TEST_FAST_PROCESSORS, Runtime.getRuntime().availableProcessors()));
+        }
+
+        @Override
+        Map<String, Object> indexSettings(InstallationDescription installationDescription) {
+            Map<String, Object> settings = new LinkedHashMap<>();
+            settings.put("number_of_shards", 1);
+            settings.put("number_of_replicas", 0);
+            settings.put("refresh_interval", "30s");
+            if (!installationDescription.versionIs1x()) {
+                settings.put("translog.durability", "async");
+            }
+            return settings;
+        }
+    };
+
+    private static final int TEST_FAST_PROCESSORS = 2;
+
+    /**
+     * Node settings for given Elasticsearch version
+     */
+    abstract InstanceSettings nodeSettings(InstallationDescription installationDescription);
+
+    /**
+     * Default settings of indices created by {@link EmbeddedElastic}, without "index." prefix
+     */
+    abstract Map<String, Object> indexSettings(InstallationDescription installationDescription);
+}
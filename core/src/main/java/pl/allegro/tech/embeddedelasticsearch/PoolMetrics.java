@@ -0,0 +1,73 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+/**
+ * Snapshot of {@link EmbeddedElasticPool} state and counters
+ */
+public final class PoolMetrics {
+
+    private final int running;
+    private final int idle;
+    private final int leased;
+    private final long leases;
+    private final long evictions;
+    private final long replenishments;
+    private final long averageLeaseWaitInMs;
+    private final long maxLeaseWaitInMs;
+
+    PoolMetrics(int running, int idle, int leased, long leases, long evictions, long replenishments,
+                long averageLeaseWaitInMs, long maxLeaseWaitInMs) {
+        this.running = running;
+        this.idle = idle;
+        this.leased = leased;
+        this.leases = leases;
+        this.evictions = evictions;
+        this.replenishments = replenishments;
+        this.averageLeaseWaitInMs = averageLeaseWaitInMs;
+        this.maxLeaseWaitInMs = maxLeaseWaitInMs;
+    }
+
+    /**
+     * @return number of instances running or being started, evicted ones excluded
+     */
+    public int getRunning() {
+        return running;
+    }
+
+    public int getIdle() {
+        return idle;
+    }
+
+    public int getLeased() {
+        return leased;
+    }
+
+    public long getLeases() {
+        return leases;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return number of instances started again after they died, failed to reset or were evicted
+     */
+    public long getReplenishments() {
+        return replenishments;
+    }
+
+    public long getAverageLeaseWaitInMs() {
+        return averageLeaseWaitInMs;
+    }
+
+    public long getMaxLeaseWaitInMs() {
+        return maxLeaseWaitInMs;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolMetrics{running=" + running + ", idle=" + idle + ", leased=" + leased + ", leases=" + leases
+                + ", evictions=" + evictions + ", replenishments=" + replenishments
+                + ", averageLeaseWaitInMs=" + averageLeaseWaitInMs + ", maxLeaseWaitInMs=" + maxLeaseWaitInMs + "}";
+    }
+}
@@ -0,0 +1,152 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds free ports and holds them until Elasticsearch binds them. Port found free is not bound until Elasticsearch
+ * starts, so each port is reserved with an exclusive lock on a file named after it, in a directory shared by all JVMs.
+ * Parallel threads and forks therefore never get the same port.
+ */
+class PortAllocator {
+
+    private static final PortAllocator SHARED = new PortAllocator(new File(System.getProperty("java.io.tmpdir"), "embedded-elasticsearch-ports"));
+    private static final int MAX_ATTEMPTS_PER_PORT = 100;
+
+    private final File registryDirectory;
+    private final Set<Integer> reservedInJvm = ConcurrentHashMap.newKeySet();
+
+    PortAllocator(File registryDirectory) {
+        this.registryDirectory = registryDirectory;
+    }
+
+    static PortAllocator shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return reservation of given number of distinct free ports, which has to be closed once they are bound
+     */
+    PortReservation reserve(int count) {
+        List<Reservation> reservations = new ArrayList<>();
+        try {
+            while (reservations.size() < count) {
+                reservations.add(reserveFreePort());
+            }
+        } catch (RuntimeException e) {
+            reservations.forEach(this::release);
+            throw e;
+        }
+        return new PortReservation(reservations);
+    }
+
+    private Reservation reserveFreePort() {
+        registryDirectory.mkdirs();
+        for (int attempt = 0; attempt < MAX_ATTEMPTS_PER_PORT; attempt++) {
+            int port = findFreePort();
+            if (!reservedInJvm.add(port)) {
+                continue;
+            }
+            Reservation reservation = tryLock(port);
+            if (reservation != null) {
+                return reservation;
+            }
+            reservedInJvm.remove(port);
+        }
+        throw new EmbeddedElasticsearchStartupException("Unable to reserve free port in " + registryDirectory);
+    }
+
+    private Reservation tryLock(int port) {
+        FileChannel channel = null;
+        try {
+            channel = new RandomAccessFile(new File(registryDirectory, port + ".lock"), "rw").getChannel();
+            FileLock lock = channel.tryLock();
+            if (lock != null) {
+                return new Reservation(port, channel, lock);
+            }
+        } catch (IOException | OverlappingFileLockException e) {
+            // port is reserved or registry is not accessible, another port will be tried
+        }
+        closeQuietly(channel);
+        return null;
+    }
+
+    private void release(Reservation reservation) {
+        try {
+            reservation.lock.release();
+        } catch (IOException e) {
+            // closing channel releases the lock anyway
+        }
+        closeQuietly(reservation.channel);
+        reservedInJvm.remove(reservation.port);
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    static int findFreePort() {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new EmbeddedElasticsearchStartupException("Unable to find free port", e);
+        }
+    }
+
+    private static class Reservation {
+        private final int port;
+        private final FileChannel channel;
+        private final FileLock lock;
+
+        Reservation(int port, FileChannel channel, FileLock lock) {
+            this.port = port;
+            this.channel = channel;
+            this.lock = lock;
+        }
+    }
+
+    final class PortReservation implements AutoCloseable {
+
+        private final List<Reservation> reservations;
+
+        private PortReservation(List<Reservation> reservations) {
+            this.reservations = reservations;
+        }
+
+        int getPort(int index) {
+            return reservations.get(index).port;
+        }
+
+        List<Integer> getPorts() {
+            List<Integer> ports = new ArrayList<>();
+            reservations.forEach(reservation -> ports.add(reservation.port));
+            return Collections.unmodifiableList(ports);
+        }
+
+        /**
+         * Releases ports, so other JVMs may reserve them again once they are not bound
+         */
+        @Override
+        public synchronized void close() {
+            reservations.forEach(PortAllocator.this::release);
+            reservations.clear();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import org.apache.http.client.methods.HttpGet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+
+import static pl.allegro.tech.embeddedelasticsearch.HttpStatusCodes.OK;
+
+/**
+ * select how embedded-elasticsearch detects that started Elasticsearch node is ready to serve requests
+ */
+public abstract class ReadinessStrategy {
+
+    /**
+     * default behavior, wait for Elasticsearch to log that it has started
+     */
+    public static ReadinessStrategy logScraping() {
+        return new LogScraping();
+    }
+
+    /**
+     * probe http port of Elasticsearch with backoff until it answers. If http port is not set explicitly, a free one
+     * is reserved before start
+     */
+    public static ReadinessStrategy httpProbe() {
+        return new HttpProbe();
+    }
+
+    abstract boolean requiresKnownHttpPort();
+
+    /**
+     * Called for every line of Elasticsearch output until node is ready
+     */
+    abstract void onOutputLine(String line, CompletableFuture<Void> ready);
+
+    /**
+     * Called right after Elasticsearch process was spawned
+     */
+    abstract void onProcessStarted(int httpPort, CompletableFuture<Void> ready);
+
+    private static class LogScraping extends ReadinessStrategy {
+
+        @Override
+        boolean requiresKnownHttpPort() {
+            return false;
+        }
+
+        @Override
+        void onOutputLine(String line, CompletableFuture<Void> ready) {
+            if (line.contains("] started")) {
+                ready.complete(null);
+            }
+        }
+
+        @Override
+        void onProcessStarted(int httpPort, CompletableFuture<Void> ready) {
+        }
+    }
+
+    private static class HttpProbe extends ReadinessStrategy {
+
+        private static final Logger logger = LoggerFactory.getLogger(HttpProbe.class);
+        private static final long INITIAL_BACKOFF_IN_MS = 10;
+        private static final long MAX_BACKOFF_IN_MS = 500;
+        private static final int CONNECT_TIMEOUT_IN_MS = 500;
+        private static final int SOCKET_TIMEOUT_IN_MS = 1_000;
+
+        @Override
+        boolean requiresKnownHttpPort() {
+            return true;
+        }
+
+        @Override
+        void onOutputLine(String line, CompletableFuture<Void> ready) {
+        }
+
+        @Override
+        void onProcessStarted(int httpPort, CompletableFuture<Void> ready) {
+            LifecycleManager.get().executor().execute(() -> probe(httpPort, ready));
+        }
+
+        /**
+         * Short timeouts keep a node which accepted connection but hangs from delaying next probe
+         */
+        private void probe(int httpPort, CompletableFuture<Void> ready) {
+            HttpClient httpClient = new HttpClient(CONNECT_TIMEOUT_IN_MS, SOCKET_TIMEOUT_IN_MS);
+            try {
+                long backoff = INITIAL_BACKOFF_IN_MS;
+                while (!ready.isDone()) {
+                    if (answers(httpClient, httpPort)) {
+                        ready.complete(null);
+                        return;
+                    }
+                    try {
+                        Thread.sleep(backoff);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF_IN_MS);
+                }
+            } finally {
+                closeQuietly(httpClient);
+            }
+        }
+
+        private void closeQuietly(HttpClient httpClient) {
+            try {
+                httpClient.close();
+            } catch (HttpClient.HttpRequestException e) {
+                logger.debug("Unable to close http client of readiness probe", e);
+            }
+        }
+
+        private boolean answers(HttpClient httpClient, int httpPort) {
+            try {
+                return httpClient.execute(new HttpGet("http://localhost:" + httpPort + "/"),
+                        response -> response.getStatusLine().getStatusCode() == OK);
+            } catch (HttpClient.HttpRequestException e) {
+                logger.trace("Elasticsearch does not answer on port {} yet", httpPort);
+                return false;
+            }
+        }
+    }
+}
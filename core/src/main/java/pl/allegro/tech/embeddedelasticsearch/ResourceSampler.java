@@ -0,0 +1,128 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Samples resources used by Elasticsearch process from /proc/&lt;pid&gt;/stat, status and fd. PID is looked up on
+ * every sample, as Elasticsearch started with its script reports PID only after a while. Sampling is skipped where
+ * /proc is not available. Samplers of all instances run on one scheduler thread, each keeps only its scheduled task.
+ */
+class ResourceSampler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResourceSampler.class);
+    /**
+     * Clock ticks per second of /proc/&lt;pid&gt;/stat, which is 100 on all common Linux platforms
+     */
+    private static final long CLOCK_TICKS_PER_SECOND = 100;
+    private static final int UTIME_FIELD = 11;
+    private static final int STIME_FIELD = 12;
+    private static final int THREADS_FIELD = 17;
+
+    private final File procDirectory;
+    private final LongSupplier pid;
+    private final long intervalInMs;
+    private final ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> sampling;
+
+    private volatile ResourceUsage lastUsage;
+    private long sampledPid = -1;
+    private long peakRssInBytes;
+    private int peakThreads;
+    private int peakOpenFileDescriptors;
+
+    ResourceSampler(File procDirectory, LongSupplier pid, long intervalInMs, ScheduledExecutorService scheduler) {
+        this.procDirectory = procDirectory;
+        this.pid = pid;
+        this.intervalInMs = intervalInMs;
+        this.scheduler = scheduler;
+    }
+
+    static ResourceSampler forProcess(LongSupplier pid, long intervalInMs) {
+        return new ResourceSampler(new File("/proc"), pid, intervalInMs, LifecycleManager.get().scheduler());
+    }
+
+    synchronized void start() {
+        if (!procDirectory.isDirectory()) {
+            logger.info("Resource monitoring of Elasticsearch is not available without " + procDirectory);
+            return;
+        }
+        sampling = scheduler.scheduleAtFixedRate(this::sampleQuietly, 0, intervalInMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes last sample and stops sampling
+     *
+     * @return usage recorded until now
+     */
+    synchronized Optional<ResourceUsage> stop() {
+        if (sampling != null) {
+            sampling.cancel(false);
+            sampling = null;
+            sampleQuietly();
+        }
+        return getUsage();
+    }
+
+    Optional<ResourceUsage> getUsage() {
+        return Optional.ofNullable(lastUsage);
+    }
+
+    private void sampleQuietly() {
+        try {
+            sample();
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Unable to sample resources of Elasticsearch process", e);
+        }
+    }
+
+    synchronized void sample() throws IOException {
+        long currentPid = pid.getAsLong();
+        File processDirectory = new File(procDirectory, String.valueOf(currentPid));
+        if (currentPid <= 0 || !processDirectory.isDirectory()) {
+            return;
+        }
+        if (currentPid != sampledPid) {
+            sampledPid = currentPid;
+            peakRssInBytes = 0;
+            peakThreads = 0;
+            peakOpenFileDescriptors = 0;
+        }
+        String stat = new String(Files.readAllBytes(new File(processDirectory, "stat").toPath()), UTF_8);
+        String[] statFields = stat.substring(stat.lastIndexOf(')') + 2).trim().split("\\s+");
+        long cpuTimeInTicks = Long.parseLong(statFields[UTIME_FIELD]) + Long.parseLong(statFields[STIME_FIELD]);
+        int threads = Integer.parseInt(statFields[THREADS_FIELD]);
+        List<String> status = Files.readAllLines(new File(processDirectory, "status").toPath(), UTF_8);
+        long rssInBytes = statusValueInKb(status, "VmRSS:") * 1024;
+        long kernelPeakRssInBytes = statusValueInKb(status, "VmHWM:") * 1024;
+        String[] fileDescriptors = new File(processDirectory, "fd").list();
+        int openFileDescriptors = fileDescriptors == null ? 0 : fileDescriptors.length;
+
+        peakRssInBytes = Math.max(peakRssInBytes, Math.max(rssInBytes, kernelPeakRssInBytes));
+        peakThreads = Math.max(peakThreads, threads);
+        peakOpenFileDescriptors = Math.max(peakOpenFileDescriptors, openFileDescriptors);
+        lastUsage = new ResourceUsage(currentPid, rssInBytes, peakRssInBytes, cpuTimeInTicks * 1000 / CLOCK_TICKS_PER_SECOND,
+                threads, peakThreads, openFileDescriptors, peakOpenFileDescriptors);
+    }
+
+    private static long statusValueInKb(List<String> status, String key) {
+        return status.stream()
+                .filter(line -> line.startsWith(key))
+                .map(line -> line.substring(key.length()).trim().split("\\s+")[0])
+                .mapToLong(Long::parseLong)
+                .findFirst()
+                .orElse(0);
+    }
+}
@@ -0,0 +1,79 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+/**
+ * Snapshot of resources used by Elasticsearch process, sampled from /proc
+ */
+public final class ResourceUsage {
+
+    private static final long MB = 1024 * 1024;
+
+    private final long pid;
+    private final long rssInBytes;
+    private final long peakRssInBytes;
+    private final long cpuTimeInMs;
+    private final int threads;
+    private final int peakThreads;
+    private final int openFileDescriptors;
+    private final int peakOpenFileDescriptors;
+
+    ResourceUsage(long pid, long rssInBytes, long peakRssInBytes, long cpuTimeInMs, int threads, int peakThreads,
+                  int openFileDescriptors, int peakOpenFileDescriptors) {
+        this.pid = pid;
+        this.rssInBytes = rssInBytes;
+        this.peakRssInBytes = peakRssInBytes;
+        this.cpuTimeInMs = cpuTimeInMs;
+        this.threads = threads;
+        this.peakThreads = peakThreads;
+        this.openFileDescriptors = openFileDescriptors;
+        this.peakOpenFileDescriptors = peakOpenFileDescriptors;
+    }
+
+    public long getPid() {
+        return pid;
+    }
+
+    /**
+     * @return resident set size at the time of the last sample
+     */
+    public long getRssInBytes() {
+        return rssInBytes;
+    }
+
+    /**
+     * @return highest resident set size of the process, as recorded by the kernel
+     */
+    public long getPeakRssInBytes() {
+        return peakRssInBytes;
+    }
+
+    /**
+     * @return user and system CPU time consumed by the process
+     */
+    public long getCpuTimeInMs() {
+        return cpuTimeInMs;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getPeakThreads() {
+        return peakThreads;
+    }
+
+    public int getOpenFileDescriptors() {
+        return openFileDescriptors;
+    }
+
+    public int getPeakOpenFileDescriptors() {
+        return peakOpenFileDescriptors;
+    }
+
+    @Override
+    public String toString() {
+        return "Elasticsearch " + pid + " used RSS " + rssInBytes / MB + " MB (peak " + peakRssInBytes / MB + " MB)"
+                + ", CPU time " + cpuTimeInMs + " ms"
+                + ", threads " + threads + " (peak " + peakThreads + ")"
+                + ", open files " + openFileDescriptors + " (peak " + peakOpenFileDescriptors + ")";
+    }
+}
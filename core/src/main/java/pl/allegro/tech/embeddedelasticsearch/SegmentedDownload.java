@@ -0,0 +1,468 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.input.TeeInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads file over several HTTP connections, each fetching a range of bytes into its position of a preallocated
+ * partial file. Progress of every segment is persisted next to the partial file, so download interrupted by a failure
+ * or a killed JVM is resumed by the next attempt. Servers which do not support ranges are read over single connection.
+ */
+class SegmentedDownload {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentedDownload.class);
+    private static final String PART_SUFFIX = ".part";
+    private static final String PROGRESS_SUFFIX = ".progress";
+    private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("^bytes \\d+-\\d+/(\\d+)$");
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int ATTEMPTS_PER_SEGMENT = 3;
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+    private static final long PROGRESS_SAVE_INTERVAL_IN_MS = 1_000;
+    private static final long READ_POLL_INTERVAL_IN_MS = 10;
+
+    private final URL source;
+    private final File target;
+    private final int connections;
+    private final int connectionTimeoutInMs;
+    private final int readTimeoutInMs;
+    private final Proxy proxy;
+    private final ExecutorService executor;
+
+    SegmentedDownload(URL source, File target, int connections, int connectionTimeoutInMs, int readTimeoutInMs, Proxy proxy,
+                      ExecutorService executor) {
+        this.source = source;
+        this.target = target;
+        this.connections = connections;
+        this.connectionTimeoutInMs = connectionTimeoutInMs;
+        this.readTimeoutInMs = readTimeoutInMs;
+        this.proxy = proxy;
+        this.executor = executor;
+    }
+
+    static File partialFileOf(File target) {
+        return new File(target.getParentFile(), target.getName() + PART_SUFFIX);
+    }
+
+    static File progressFileOf(File target) {
+        return new File(target.getParentFile(), target.getName() + PART_SUFFIX + PROGRESS_SUFFIX);
+    }
+
+    /**
+     * Downloads source and moves it to target once complete. Partial file and its progress are kept on failure, unless
+     * downloaded bytes do not match expected checksum. SHA-512 digest is computed while bytes arrive, so the file is not
+     * read again once downloaded.
+     *
+     * @return hex SHA-512 digest of downloaded file
+     */
+    String download(Optional<String> expectedChecksum) throws IOException, InterruptedException {
+        return download(expectedChecksum, input -> {
+        });
+    }
+
+    /**
+     * @param consumer reads downloaded bytes in order while download is in progress, bytes it does not read are still
+     *                 downloaded and verified
+     */
+    String download(Optional<String> expectedChecksum, StreamConsumer consumer) throws IOException, InterruptedException {
+        File partialFile = partialFileOf(target);
+        File progressFile = progressFileOf(target);
+        URLConnection probe = open();
+        probe.setRequestProperty("Range", "bytes=0-0");
+        Optional<Remote> remote = rangedRemote(probe);
+        MessageDigest digest;
+        if (remote.isPresent()) {
+            digest = downloadSegments(remote.get(), partialFile, progressFile, consumer);
+        } else {
+            logger.info("Ranged download of {} is not supported, using single connection", source);
+            Files.deleteIfExists(progressFile.toPath());
+            URLConnection connection = isRangeIgnored(probe) ? probe : open();
+            digest = PackageChecksum.newDigest();
+            try (InputStream input = new DigestInputStream(
+                    new TeeInputStream(connection.getInputStream(), FileUtils.openOutputStream(partialFile), true), digest)) {
+                consume(input, consumer);
+            }
+        }
+        String checksum = PackageChecksum.toHex(digest.digest());
+        if (expectedChecksum.isPresent() && !expectedChecksum.get().equals(checksum)) {
+            Files.deleteIfExists(partialFile.toPath());
+            Files.deleteIfExists(progressFile.toPath());
+            throw new IOException("Checksum of " + source + " is " + checksum + " but " + expectedChecksum.get() + " was expected");
+        }
+        Files.move(partialFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(progressFile.toPath());
+        return checksum;
+    }
+
+    private MessageDigest downloadSegments(Remote remote, File partialFile, File progressFile, StreamConsumer consumer)
+            throws IOException, InterruptedException {
+        Progress progress = Progress.load(progressFile)
+                .filter(loaded -> loaded.matches(source, remote) && partialFile.length() == remote.length)
+                .orElse(null);
+        if (progress == null) {
+            progress = Progress.create(source, remote, segmentCount(remote.length));
+            Files.deleteIfExists(partialFile.toPath());
+        } else {
+            logger.info("Resuming download of {}, {} of {} bytes already downloaded", source, progress.downloaded(), remote.length);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(partialFile, "rw")) {
+            file.setLength(remote.length);
+            FileChannel channel = file.getChannel();
+            progress.save(progressFile, channel);
+            List<Future<?>> workers = new ArrayList<>();
+            for (Segment segment : progress.segments) {
+                if (!segment.isComplete()) {
+                    Progress currentProgress = progress;
+                    workers.add(executor.submit(() -> {
+                        downloadSegment(remote, segment, channel, currentProgress, progressFile);
+                        return null;
+                    }));
+                }
+            }
+            MessageDigest digest = PackageChecksum.newDigest();
+            try {
+                consume(new DigestInputStream(new ContiguousInputStream(workers, progress, channel), digest), consumer);
+                awaitAll(workers);
+            } finally {
+                workers.forEach(worker -> worker.cancel(true));
+                progress.save(progressFile, channel);
+            }
+            channel.force(true);
+            return digest;
+        }
+    }
+
+    /**
+     * Passes downloaded bytes to the consumer and reads whatever it left, so the digest covers the whole file
+     */
+    private static void consume(InputStream input, StreamConsumer consumer) throws IOException {
+        consumer.consume(new CloseShieldInputStream(input));
+        IOUtils.skip(input, Long.MAX_VALUE);
+    }
+
+    private void downloadSegment(Remote remote, Segment segment, FileChannel channel, Progress progress, File progressFile)
+            throws IOException {
+        IOException lastFailure = null;
+        for (int attempt = 0; attempt < ATTEMPTS_PER_SEGMENT && !segment.isComplete(); attempt++) {
+            try {
+                transferSegment(remote, segment, channel, progress, progressFile);
+            } catch (IOException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                logger.debug("Segment {}-{} of {} failed at {}, retrying", segment.start, segment.end, source, segment.position.get(), e);
+                lastFailure = e;
+            }
+        }
+        if (!segment.isComplete()) {
+            throw new IOException("Unable to download bytes " + segment.position.get() + "-" + segment.end + " of " + source, lastFailure);
+        }
+    }
+
+    private void transferSegment(Remote remote, Segment segment, FileChannel channel, Progress progress, File progressFile)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) open();
+        connection.setRequestProperty("Range", "bytes=" + segment.position.get() + "-" + segment.end);
+        if (remote.validator != null) {
+            connection.setRequestProperty("If-Range", remote.validator);
+        }
+        try (InputStream input = connection.getInputStream()) {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Server stopped serving ranges of " + source + ", it has probably changed");
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!segment.isComplete()) {
+                int maxLength = (int) Math.min(buffer.length, segment.end - segment.position.get() + 1);
+                int read = input.read(buffer, 0, maxLength);
+                if (read < 0) {
+                    throw new IOException("Connection closed before bytes " + segment.position.get() + "-" + segment.end + " of " + source + " were read");
+                }
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+                long position = segment.position.get();
+                while (data.hasRemaining()) {
+                    position += channel.write(data, position);
+                }
+                segment.position.set(position);
+                progress.saveIfDue(progressFile, channel);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private int segmentCount(long length) {
+        return (int) Math.max(1, Math.min(connections, length / MIN_SEGMENT_SIZE));
+    }
+
+    private URLConnection open() throws IOException {
+        URLConnection connection = proxy != null ? source.openConnection(proxy) : source.openConnection();
+        connection.setConnectTimeout(connectionTimeoutInMs);
+        connection.setReadTimeout(readTimeoutInMs);
+        return connection;
+    }
+
+    private Optional<Remote> rangedRemote(URLConnection probe) throws IOException {
+        if (!(probe instanceof HttpURLConnection)) {
+            return Optional.empty();
+        }
+        HttpURLConnection connection = (HttpURLConnection) probe;
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+            return Optional.empty();
+        }
+        // only headers of the probe are needed, its single byte of content is discarded
+        connection.getInputStream().close();
+        Matcher matcher = CONTENT_RANGE_PATTERN.matcher(Objects.toString(connection.getHeaderField("Content-Range"), ""));
+        if (!matcher.matches()) {
+            return Optional.empty();
+        }
+        String validator = connection.getHeaderField("ETag") != null
+                ? connection.getHeaderField("ETag")
+                : connection.getHeaderField("Last-Modified");
+        return Optional.of(new Remote(Long.parseLong(matcher.group(1)), validator));
+    }
+
+    private static boolean isRangeIgnored(URLConnection probe) throws IOException {
+        return !(probe instanceof HttpURLConnection) || ((HttpURLConnection) probe).getResponseCode() == HttpURLConnection.HTTP_OK;
+    }
+
+    private static void awaitAll(List<Future<?>> workers) throws IOException, InterruptedException {
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Segmented download failed", e.getCause());
+            }
+        }
+    }
+
+    interface StreamConsumer {
+        void consume(InputStream input) throws IOException;
+    }
+
+    /**
+     * Reads the partial file in order while segments are being downloaded, following the end of bytes downloaded
+     * without a gap from the beginning of the file. Bytes are read back while they are still in the page cache.
+     */
+    private class ContiguousInputStream extends InputStream {
+        private final List<Future<?>> workers;
+        private final Progress progress;
+        private final FileChannel channel;
+        private long position = 0;
+
+        ContiguousInputStream(List<Future<?>> workers, Progress progress, FileChannel channel) {
+            this.workers = workers;
+            this.progress = progress;
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            long available = awaitBytes();
+            if (available == 0) {
+                return -1;
+            }
+            int read = channel.read(ByteBuffer.wrap(buffer, offset, (int) Math.min(length, available)), position);
+            if (read < 0) {
+                throw new IOException("Partial file of " + source + " is shorter than downloaded bytes");
+            }
+            position += read;
+            return read;
+        }
+
+        private long awaitBytes() throws IOException {
+            try {
+                while (true) {
+                    boolean finished = workers.stream().allMatch(Future::isDone);
+                    long contiguous = progress.contiguous();
+                    if (contiguous > position) {
+                        return contiguous - position;
+                    }
+                    if (finished) {
+                        if (position < progress.length) {
+                            awaitAll(workers);
+                            throw new IOException("Download of " + source + " ended at " + position + " of " + progress.length + " bytes");
+                        }
+                        return 0;
+                    }
+                    Thread.sleep(READ_POLL_INTERVAL_IN_MS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + source);
+            }
+        }
+    }
+
+    private static class Remote {
+        private final long length;
+        private final String validator;
+
+        Remote(long length, String validator) {
+            this.length = length;
+            this.validator = validator;
+        }
+    }
+
+    private static class Segment {
+        private final long start;
+        private final long end;
+        private final AtomicLong position;
+
+        Segment(long start, long end, long position) {
+            this.start = start;
+            this.end = end;
+            this.position = new AtomicLong(position);
+        }
+
+        boolean isComplete() {
+            return position.get() > end;
+        }
+    }
+
+    private static class Progress {
+        private final String url;
+        private final long length;
+        private final String validator;
+        private final List<Segment> segments;
+        private long lastSaveTimeInMs;
+
+        private Progress(String url, long length, String validator, List<Segment> segments) {
+            this.url = url;
+            this.length = length;
+            this.validator = validator;
+            this.segments = segments;
+        }
+
+        static Progress create(URL source, Remote remote, int segmentCount) {
+            List<Segment> segments = new ArrayList<>();
+            long segmentSize = remote.length / segmentCount;
+            for (int i = 0; i < segmentCount; i++) {
+                long start = i * segmentSize;
+                long end = i == segmentCount - 1 ? remote.length - 1 : start + segmentSize - 1;
+                segments.add(new Segment(start, end, start));
+            }
+            return new Progress(source.toString(), remote.length, remote.validator, segments);
+        }
+
+        static Optional<Progress> load(File progressFile) throws IOException {
+            if (!progressFile.isFile()) {
+                return Optional.empty();
+            }
+            Properties properties = new Properties();
+            try (InputStream input = Files.newInputStream(progressFile.toPath())) {
+                properties.load(input);
+            }
+            try {
+                List<Segment> segments = new ArrayList<>();
+                int segmentCount = Integer.parseInt(properties.getProperty("segments"));
+                for (int i = 0; i < segmentCount; i++) {
+                    segments.add(new Segment(
+                            Long.parseLong(properties.getProperty("segment." + i + ".start")),
+                            Long.parseLong(properties.getProperty("segment." + i + ".end")),
+                            Long.parseLong(properties.getProperty("segment." + i + ".position"))));
+                }
+                return Optional.of(new Progress(properties.getProperty("url"), Long.parseLong(properties.getProperty("length")),
+                        properties.getProperty("validator"), segments));
+            } catch (RuntimeException e) {
+                return Optional.empty();
+            }
+        }
+
+        boolean matches(URL source, Remote remote) {
+            return url.equals(source.toString()) && length == remote.length && Objects.equals(validator, remote.validator);
+        }
+
+        /**
+         * @return number of bytes downloaded without a gap from the beginning of the file
+         */
+        long contiguous() {
+            for (Segment segment : segments) {
+                if (!segment.isComplete()) {
+                    return segment.position.get();
+                }
+            }
+            return length;
+        }
+
+        long downloaded() {
+            return segments.stream().mapToLong(segment -> segment.position.get() - segment.start).sum();
+        }
+
+        synchronized void saveIfDue(File progressFile, FileChannel channel) throws IOException {
+            if (System.currentTimeMillis() - lastSaveTimeInMs >= PROGRESS_SAVE_INTERVAL_IN_MS) {
+                save(progressFile, channel);
+            }
+        }
+
+        /**
+         * Forces written data to disk first, so persisted progress never covers bytes which could still be lost
+         */
+        synchronized void save(File progressFile, FileChannel channel) throws IOException {
+            Properties properties = new Properties();
+            properties.setProperty("url", url);
+            properties.setProperty("length", String.valueOf(length));
+            if (validator != null) {
+                properties.setProperty("validator", validator);
+            }
+            properties.setProperty("segments", String.valueOf(segments.size()));
+            for (int i = 0; i < segments.size(); i++) {
+                Segment segment = segments.get(i);
+                properties.setProperty("segment." + i + ".start", String.valueOf(segment.start));
+                properties.setProperty("segment." + i + ".end", String.valueOf(segment.end));
+                properties.setProperty("segment." + i + ".position", String.valueOf(segment.position.get()));
+            }
+            if (channel.isOpen()) {
+                channel.force(false);
+            }
+            File temporaryFile = new File(progressFile.getParentFile(), progressFile.getName() + ".tmp");
+            try (OutputStream output = Files.newOutputStream(temporaryFile.toPath())) {
+                properties.store(output, "embedded-elasticsearch download progress");
+            }
+            Files.move(temporaryFile.toPath(), progressFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            lastSaveTimeInMs = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+/**
+ * Extracts startup markers from Elasticsearch log lines without regular expressions, as it is applied to every line
+ * logged until node is ready
+ */
+class StartupLogParser {
+
+    private static final String PID_MARKER = "pid[";
+    private static final String PUBLISH_ADDRESS_MARKER = "publish_address {";
+
+    static boolean isPidLine(String line) {
+        return line.contains(", pid[");
+    }
+
+    static boolean isHttpPublishAddressLine(String line) {
+        return line.contains("publish_address") && (line.contains("[http") || line.contains("HttpServer"));
+    }
+
+    static boolean isTransportPublishAddressLine(String line) {
+        return line.contains("publish_address") && (line.contains("[transport") || line.contains("TransportService"));
+    }
+
+    /**
+     * @return pid from line like "[node] version[6.3.0], pid[1234], build[...]" or -1 if missing
+     */
+    static int extractPid(String line) {
+        int start = line.indexOf(PID_MARKER);
+        if (start < 0) {
+            return -1;
+        }
+        return parseDigits(line, start + PID_MARKER.length(), line.length());
+    }
+
+    /**
+     * @return port from publish address like "publish_address {127.0.0.1:9200}" or "publish_address {inet[/127.0.0.1:9200]}"
+     * (Elasticsearch 1.x) or -1 if missing
+     */
+    static int extractPublishPort(String line) {
+        int start = line.indexOf(PUBLISH_ADDRESS_MARKER);
+        if (start < 0) {
+            return -1;
+        }
+        int end = line.indexOf('}', start);
+        if (end < 0) {
+            return -1;
+        }
+        int portEnd = Character.isDigit(line.charAt(end - 1)) ? end : end - 1;
+        int portStart = portEnd;
+        while (portStart > start && Character.isDigit(line.charAt(portStart - 1))) {
+            portStart--;
+        }
+        if (portStart == portEnd || line.charAt(portStart - 1) != ':') {
+            return -1;
+        }
+        return parseDigits(line, portStart, portEnd);
+    }
+
+    private static int parseDigits(String line, int from, int to) {
+        int value = 0;
+        int i = from;
+        while (i < to && Character.isDigit(line.charAt(i))) {
+            value = value * 10 + (line.charAt(i) - '0');
+            i++;
+        }
+        return i == from ? -1 : value;
+    }
+}
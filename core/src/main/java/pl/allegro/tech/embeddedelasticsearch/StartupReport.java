@@ -0,0 +1,121 @@
+package pl.allegro.tech.embeddedelasticsearch;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Time spent in each phase of {@link EmbeddedElastic#start()}, measured with monotonic clock
+ */
+public final class StartupReport {
+
+    public enum Phase {
+        DOWNLOAD,
+        UNZIP,
+        CONFIGURATION,
+        PLUGINS_INSTALLATION,
+        GOLDEN_IMAGE_RESTORE,
+        JVM_BOOT,
+        CLUSTER_YELLOW,
+        TEMPLATES_CREATION,
+        INDICES_CREATION,
+        GOLDEN_IMAGE_CAPTURE
+    }
+
+    private final Map<Phase, Long> durationsInNanos = new EnumMap<>(Phase.class);
+    private final Set<Phase> skippedPhases = EnumSet.noneOf(Phase.class);
+    private long totalDurationInNanos;
+    private boolean completed;
+
+    StartupReport() {
+    }
+
+    /**
+     * @return time spent in the phase, zero if phase was skipped or not applicable
+     */
+    public synchronized Duration getDuration(Phase phase) {
+        return Duration.ofNanos(durationsInNanos.getOrDefault(phase, 0L));
+    }
+
+    /**
+     * @return whether phase was skipped thanks to cached download, installation or golden image
+     */
+    public synchronized boolean isSkipped(Phase phase) {
+        return skippedPhases.contains(phase);
+    }
+
+    public synchronized Set<Phase> getSkippedPhases() {
+        return Collections.unmodifiableSet(EnumSet.copyOf(skippedPhases));
+    }
+
+    public synchronized Duration getTotalDuration() {
+        return Duration.ofNanos(totalDurationInNanos);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder report = new StringBuilder("Elasticsearch started in " + getTotalDuration().toMillis() + " ms");
+        for (Phase phase : Phase.values()) {
+            if (skippedPhases.contains(phase)) {
+                report.append("\n  ").append(phase).append(": skipped");
+            } else if (durationsInNanos.containsKey(phase)) {
+                report.append("\n  ").append(phase).append(": ").append(getDuration(phase).toMillis()).append(" ms");
+            }
+        }
+        return report.toString();
+    }
+
+    <T> T measure(Phase phase, Step<T> step) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        try {
+            return step.run();
+        } finally {
+            record(phase, System.nanoTime() - start);
+        }
+    }
+
+    <T> T measureQuietly(Phase phase, Supplier<T> step) {
+        long start = System.nanoTime();
+        try {
+            return step.get();
+        } finally {
+            record(phase, System.nanoTime() - start);
+        }
+    }
+
+    void measureVoid(Phase phase, Runnable step) {
+        measureQuietly(phase, () -> {
+            step.run();
+            return null;
+        });
+    }
+
+    synchronized void skip(Phase... phases) {
+        if (!completed) {
+            Collections.addAll(skippedPhases, phases);
+        }
+    }
+
+    /**
+     * Stops recording, so operations invoked on started instance do not affect the report
+     */
+    synchronized void complete(long totalDurationInNanos) {
+        this.totalDurationInNanos = totalDurationInNanos;
+        this.completed = true;
+    }
+
+    private synchronized void record(Phase phase, long durationInNanos) {
+        if (!completed) {
+            durationsInNanos.merge(phase, durationInNanos, Long::sum);
+        }
+    }
+
+    interface Step<T> {
+        T run() throws IOException, InterruptedException;
+    }
+}
@@ -0,0 +1,78 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream
+import org.apache.commons.io.FileUtils
+import spock.lang.Specification
+
+import static pl.allegro.tech.embeddedelasticsearch.PackageServer.zip
+
+class ArchiveStreamExtractorSpec extends Specification {
+
+    File destination = new File(FileUtils.tempDirectory, "${UUID.randomUUID()}-extracted")
+
+    def cleanup() {
+        FileUtils.deleteDirectory(destination)
+    }
+
+    def "should extract zip from stream and make bin files executable"() {
+        given:
+            final archive = zip(["elasticsearch-6.3.0/bin/elasticsearch": "#!/bin/bash", "elasticsearch-6.3.0/config/jvm.options": "-Xmx1g"])
+        when:
+            ArchiveStreamExtractor.extract(new ByteArrayInputStream(archive), "elasticsearch-6.3.0.zip", destination)
+        then:
+            new File(destination, "elasticsearch-6.3.0/bin/elasticsearch").text == "#!/bin/bash"
+            new File(destination, "elasticsearch-6.3.0/bin/elasticsearch").canExecute()
+            new File(destination, "elasticsearch-6.3.0/config/jvm.options").text == "-Xmx1g"
+            !new File(destination, "elasticsearch-6.3.0/config/jvm.options").canExecute()
+    }
+
+    def "should extract tar.gz from stream keeping permissions"() {
+        given:
+            final archive = tarGz(["elasticsearch-6.3.0/bin/elasticsearch": 0755, "elasticsearch-6.3.0/lib/elasticsearch.jar": 0644])
+        when:
+            ArchiveStreamExtractor.extract(new ByteArrayInputStream(archive), "elasticsearch-6.3.0.tar.gz", destination)
+        then:
+            new File(destination, "elasticsearch-6.3.0/bin/elasticsearch").canExecute()
+            new File(destination, "elasticsearch-6.3.0/lib/elasticsearch.jar").isFile()
+            !new File(destination, "elasticsearch-6.3.0/lib/elasticsearch.jar").canExecute()
+    }
+
+    def "should not close the stream"() {
+        given:
+            boolean closed = false
+            final input = new FilterInputStream(new ByteArrayInputStream(zip(["elasticsearch-6.3.0/README.textile": "readme"]))) {
+                @Override
+                void close() {
+                    closed = true
+                }
+            }
+        when:
+            ArchiveStreamExtractor.extract(input, "elasticsearch-6.3.0.zip", destination)
+        then:
+            !closed
+    }
+
+    def "should reject entry outside of destination"() {
+        when:
+            ArchiveStreamExtractor.extract(new ByteArrayInputStream(zip(["../escaped": "x"])), "elasticsearch-6.3.0.zip", destination)
+        then:
+            thrown(IOException)
+    }
+
+    private static byte[] tarGz(Map<String, Integer> files) {
+        final bytes = new ByteArrayOutputStream()
+        new TarArchiveOutputStream(new GzipCompressorOutputStream(bytes)).withCloseable { tar ->
+            files.each { name, mode ->
+                final entry = new TarArchiveEntry(name)
+                entry.mode = mode
+                entry.size = 1
+                tar.putArchiveEntry(entry)
+                tar.write(1)
+                tar.closeArchiveEntry()
+            }
+        }
+        bytes.toByteArray()
+    }
+}
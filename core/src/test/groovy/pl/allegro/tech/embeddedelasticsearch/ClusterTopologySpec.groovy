@@ -0,0 +1,58 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import spock.lang.Specification
+
+class ClusterTopologySpec extends Specification {
+
+    static final File INSTALLATION_DIR = new File("/tmp/es")
+    static final File INSTANCE_ROOT = new File("/tmp/es-instance")
+    static final InstanceDirectory INSTANCE_DIR = InstanceDirectory.existing(INSTANCE_ROOT)
+
+    def "should give each node its own name, ports and directories"() {
+        given:
+            def topology = new ClusterTopology([9201, 9202], [9301, 9302])
+        when:
+            def settings = topology.nodeSettings(1, installation("6.3.0"), INSTANCE_DIR)
+        then:
+            settings.getSetting("node.name").get() == "node-1"
+            settings.getSetting(PopularProperties.HTTP_PORT).get() == 9202
+            settings.getSetting(PopularProperties.TRANSPORT_TCP_PORT).get() == 9302
+            settings.getSetting("path.data").get() == new File(INSTANCE_ROOT, "data/node-1").absolutePath
+            settings.getSetting("path.logs").get() == new File(INSTANCE_ROOT, "logs/node-1").absolutePath
+    }
+
+    def "should use zen unicast discovery with master quorum up to 6.x"() {
+        given:
+            def topology = new ClusterTopology([9201, 9202, 9203], [9301, 9302, 9303])
+        when:
+            def settings = topology.nodeSettings(0, installation("6.3.0"), INSTANCE_DIR)
+        then:
+            settings.getSetting("discovery.zen.ping.unicast.hosts").get() == "127.0.0.1:9301,127.0.0.1:9302,127.0.0.1:9303"
+            settings.getSetting("discovery.zen.minimum_master_nodes").get() == 2
+            !settings.getSetting("discovery.seed_hosts").isPresent()
+    }
+
+    def "should disable multicast discovery of 1.x"() {
+        given:
+            def topology = new ClusterTopology([9201, 9202], [9301, 9302])
+        when:
+            def settings = topology.nodeSettings(0, installation("1.7.5"), INSTANCE_DIR)
+        then:
+            settings.getSetting("discovery.zen.ping.multicast.enabled").get() == false
+    }
+
+    def "should use seed hosts and initial master nodes since 7.x"() {
+        given:
+            def topology = new ClusterTopology([9201, 9202], [9301, 9302])
+        when:
+            def settings = topology.nodeSettings(0, installation("7.0.0"), INSTANCE_DIR)
+        then:
+            settings.getSetting("discovery.seed_hosts").get() == "127.0.0.1:9301,127.0.0.1:9302"
+            settings.getSetting("cluster.initial_master_nodes").get() == "node-0,node-1"
+            !settings.getSetting("discovery.zen.ping.unicast.hosts").isPresent()
+    }
+
+    private static InstallationDescription installation(String version) {
+        new InstallationDescriptionBuilder(version: version, installationDirectory: INSTALLATION_DIR).build()
+    }
+}
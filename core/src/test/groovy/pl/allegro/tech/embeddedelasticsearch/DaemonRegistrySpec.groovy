@@ -0,0 +1,59 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import org.apache.commons.io.FileUtils
+import spock.lang.Specification
+
+class DaemonRegistrySpec extends Specification {
+
+    File parentDirectory = new File(FileUtils.tempDirectory, "${UUID.randomUUID()}-daemon")
+    DaemonRegistry registry = new DaemonRegistry(new File(parentDirectory, "elasticsearch-6.3.0"))
+
+    def cleanup() {
+        FileUtils.deleteDirectory(parentDirectory)
+    }
+
+    def "should read written entry"() {
+        given:
+            final entry = new DaemonRegistry.Entry("fingerprint", 123, 9201, 9301, "/tmp/instance", ["1@host/a", "2@host/b"], 1000)
+        when:
+            registry.locked { registry.write(entry) }
+            final read = registry.locked { registry.read() }.get()
+        then:
+            read.fingerprint == "fingerprint"
+            read.pid == 123
+            read.httpPort == 9201
+            read.transportTcpPort == 9301
+            read.clients == ["1@host/a", "2@host/b"]
+            read.lastReleaseTimeInMs == 1000
+    }
+
+    def "should be empty without registered daemon"() {
+        expect:
+            !registry.read().isPresent()
+    }
+
+    def "should be empty after daemon is deleted"() {
+        given:
+            registry.locked { registry.write(new DaemonRegistry.Entry("fingerprint", 123, 9201, 9301, "/tmp/instance", [], 1000)) }
+        when:
+            registry.locked { registry.delete() }
+        then:
+            !registry.read().isPresent()
+    }
+
+    def "should update release time when client is removed"() {
+        given:
+            final entry = new DaemonRegistry.Entry("fingerprint", 123, 9201, 9301, "/tmp/instance", ["1@host/a", "2@host/b"], 1000)
+        when:
+            final released = entry.retainClients { it != "1@host/a" }
+        then:
+            released.clients == ["2@host/b"]
+            released.lastReleaseTimeInMs > 1000
+            entry.retainClients { true }.is(entry)
+    }
+
+    def "should recognize current JVM as live client"() {
+        expect:
+            DaemonRegistry.isClientAlive(DaemonRegistry.newClientId())
+    }
+}
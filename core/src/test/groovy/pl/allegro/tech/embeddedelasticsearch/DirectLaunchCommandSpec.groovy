@@ -0,0 +1,60 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import org.apache.commons.io.FileUtils
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class DirectLaunchCommandSpec extends Specification {
+
+    File jvmOptions = File.createTempFile("jvm", ".options")
+
+    def setup() {
+        FileUtils.writeStringToFile(jvmOptions, """\
+## JVM configuration
+-Xms1g
+-Xmx1g
+
+# GC logging
+8:-XX:+PrintGCDetails
+8-9:-XX:+UseConcMarkSweepGC
+9-:-Xlog:gc*:file=logs/gc.log
+-Djava.io.tmpdir=\${ES_TMPDIR}
+""", "UTF-8")
+    }
+
+    def cleanup() {
+        jvmOptions.delete()
+    }
+
+    @Unroll
+    def "should apply jvm options matching java #javaVersion"() {
+        when:
+            final options = DirectLaunchCommand.parseJvmOptions(jvmOptions, javaVersion)
+        then:
+            options == expectedOptions
+        where:
+            javaVersion | expectedOptions
+            8           | ["-Xms1g", "-Xmx1g", "-XX:+PrintGCDetails", "-XX:+UseConcMarkSweepGC", "-Djava.io.tmpdir=\${ES_TMPDIR}"]
+            9           | ["-Xms1g", "-Xmx1g", "-XX:+UseConcMarkSweepGC", "-Xlog:gc*:file=logs/gc.log", "-Djava.io.tmpdir=\${ES_TMPDIR}"]
+            11          | ["-Xms1g", "-Xmx1g", "-Xlog:gc*:file=logs/gc.log", "-Djava.io.tmpdir=\${ES_TMPDIR}"]
+    }
+
+    def "should return no options when jvm.options is missing"() {
+        expect:
+            DirectLaunchCommand.parseJvmOptions(new File(jvmOptions.parentFile, "${UUID.randomUUID()}.options"), 8).isEmpty()
+    }
+
+    def "should run elasticsearch in instance directory so relative paths of jvm options point to the instance"() {
+        given:
+            final instanceDirectory = InstanceDirectory.create(FileUtils.getTempDirectory(), "direct-launch-spec")
+            final command = new DirectLaunchCommand(["java", "-XX:HeapDumpPath=data", "-Djava.io.tmpdir=\${ES_TMPDIR}"])
+            final builder = new ProcessBuilder()
+        when:
+            command.configure(builder, ["-Ecluster.name=test"], instanceDirectory)
+        then:
+            builder.directory() == instanceDirectory.root
+            builder.command() == ["java", "-XX:HeapDumpPath=data", "-Djava.io.tmpdir=${instanceDirectory.tmpDirectory.absolutePath}".toString(), "-Ecluster.name=test"]
+        cleanup:
+            FileUtils.deleteQuietly(instanceDirectory.root)
+    }
+}
@@ -0,0 +1,111 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import org.apache.commons.io.FileUtils
+import spock.lang.Specification
+
+class DownloadCacheSpec extends Specification {
+
+    static final URL URL_6_3 = new URL("http://example.com/elasticsearch-6.3.0.zip")
+    static final URL URL_6_4 = new URL("http://example.com/elasticsearch-6.4.0.zip")
+    static final URL URL_5_6 = new URL("http://example.com/elasticsearch-5.6.0.zip")
+    static final URL MIRROR_6_3 = new URL("http://mirror.example.com/elasticsearch-6.3.0.zip")
+    static final long NOT_RECENTLY = DownloadCache.RECENT_ACCESS_IN_MS + 1
+
+    File directory = new File(FileUtils.tempDirectory, "${UUID.randomUUID()}-cache")
+    long currentTime = 1000
+
+    def cleanup() {
+        FileUtils.deleteDirectory(directory)
+    }
+
+    def "should find stored package by its url"() {
+        given:
+            final cache = newCache(Long.MAX_VALUE)
+            final stored = cache.store(URL_6_3, downloaded(URL_6_3, "elasticsearch-6.3.0.zip", 10), "aa")
+        expect:
+            cache.lookup(URL_6_3, Optional.empty()) == Optional.of(stored)
+            cache.lookup(URL_6_3, Optional.of("aa")) == Optional.of(stored)
+            !cache.lookup(URL_6_3, Optional.of("bb")).isPresent()
+            !cache.lookup(URL_6_4, Optional.empty()).isPresent()
+            stored.toFile().length() == 10
+    }
+
+    def "should keep package downloaded from different urls once"() {
+        given:
+            final cache = newCache(Long.MAX_VALUE)
+        when:
+            final first = cache.store(URL_6_3, downloaded(URL_6_3, "elasticsearch-6.3.0.zip", 10), "aa")
+            final second = cache.store(MIRROR_6_3, downloaded(MIRROR_6_3, "elasticsearch-6.3.0.zip", 10), "aa")
+        then:
+            first == second
+            cache.lookup(MIRROR_6_3, Optional.empty()) == Optional.of(first)
+            !cache.downloadDirectory(MIRROR_6_3).listFiles()
+    }
+
+    def "should not find package removed from disk"() {
+        given:
+            final cache = newCache(Long.MAX_VALUE)
+            final stored = cache.store(URL_6_3, downloaded(URL_6_3, "elasticsearch-6.3.0.zip", 10), "aa")
+        when:
+            FileUtils.forceDelete(stored.toFile())
+        then:
+            !cache.lookup(URL_6_3, Optional.empty()).isPresent()
+    }
+
+    def "should evict least recently used packages when cache exceeds its size"() {
+        given:
+            final cache = newCache(25)
+            store(cache, URL_6_3, "aa", 10)
+            store(cache, URL_6_4, "bb", 10)
+            currentTime += NOT_RECENTLY
+            cache.lookup(URL_6_3, Optional.empty())
+        when:
+            currentTime += NOT_RECENTLY
+            store(cache, URL_5_6, "cc", 10)
+        then:
+            cache.lookup(URL_6_3, Optional.empty()).isPresent()
+            !cache.lookup(URL_6_4, Optional.empty()).isPresent()
+            cache.lookup(URL_5_6, Optional.empty()).isPresent()
+            new File(directory, "sha512").list().toList().toSet() == ["aa", "cc"] as Set
+    }
+
+    def "should keep just stored package even if it exceeds cache size"() {
+        given:
+            final cache = newCache(5)
+            store(cache, URL_6_3, "aa", 10)
+        when:
+            currentTime += NOT_RECENTLY
+            store(cache, URL_6_4, "bb", 10)
+        then:
+            !cache.lookup(URL_6_3, Optional.empty()).isPresent()
+            cache.lookup(URL_6_4, Optional.empty()).isPresent()
+    }
+
+    def "should not evict package accessed recently even if cache exceeds its size"() {
+        given:
+            final cache = newCache(5)
+            store(cache, URL_6_3, "aa", 10)
+            currentTime += NOT_RECENTLY
+            cache.lookup(URL_6_3, Optional.empty())
+        when:
+            currentTime += 1000
+            store(cache, URL_6_4, "bb", 10)
+        then:
+            cache.lookup(URL_6_3, Optional.empty()).isPresent()
+            cache.lookup(URL_6_4, Optional.empty()).isPresent()
+    }
+
+    private DownloadCache newCache(long maxSizeInBytes) {
+        new DownloadCache(directory, maxSizeInBytes, { currentTime })
+    }
+
+    private void store(DownloadCache cache, URL url, String checksum, int size) {
+        cache.store(url, downloaded(url, url.path.substring(1), size), checksum)
+    }
+
+    private File downloaded(URL url, String fileName, int size) {
+        final file = new File(newCache(Long.MAX_VALUE).downloadDirectory(url), fileName)
+        FileUtils.writeByteArrayToFile(file, new byte[size])
+        file
+    }
+}
@@ -0,0 +1,181 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import com.sun.net.httpserver.HttpExchange
+import org.apache.commons.io.FileUtils
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import static pl.allegro.tech.embeddedelasticsearch.PackageServer.sha512
+
+class ElasticDownloaderSpec extends Specification {
+
+    PackageServer server = new PackageServer("download")
+    File downloadDirectory = server.directory
+    ExecutorService executor = server.executor
+
+    byte[] payload = new byte[512 * 1024]
+    String publishedChecksum = null
+    AtomicInteger requests = new AtomicInteger()
+
+    def setup() {
+        new Random().nextBytes(payload)
+        server.start { HttpExchange exchange ->
+            if (exchange.requestURI.path.endsWith(".sha512")) {
+                serveChecksum(exchange)
+                return
+            }
+            requests.incrementAndGet()
+            exchange.sendResponseHeaders(200, payload.length)
+            exchange.responseBody.write(payload)
+            exchange.close()
+        }
+    }
+
+    def cleanup() {
+        server.close()
+    }
+
+    def "should download package once when downloads run concurrently"() {
+        given:
+            final start = new CountDownLatch(1)
+            final downloads = (1..4).collect {
+                CompletableFuture.supplyAsync({
+                    start.await()
+                    newDownloader().download()
+                }, executor)
+            }
+        when:
+            start.countDown()
+            final paths = downloads*.get(10, TimeUnit.SECONDS)
+        then:
+            paths.toSet().size() == 1
+            paths.first().toFile().bytes == payload
+            requests.get() == 1
+    }
+
+    def "should wait for lock owner and skip download it completed"() {
+        given:
+            final cache = new DownloadCache(downloadDirectory, Long.MAX_VALUE)
+            final downloaded = new File(cache.downloadDirectory(packageUrl()), "elasticsearch-6.3.0.zip")
+            final locked = new CountDownLatch(1)
+            final release = new CountDownLatch(1)
+            final owner = CompletableFuture.supplyAsync({
+                cache.downloadLock(packageUrl()).locked({
+                    locked.countDown()
+                    release.await()
+                    FileUtils.writeByteArrayToFile(downloaded, payload)
+                    cache.store(packageUrl(), downloaded, sha512(payload))
+                })
+            }, executor)
+            locked.await()
+        when:
+            final waiter = CompletableFuture.supplyAsync({ newDownloader().download() }, executor)
+            Thread.sleep(200)
+        then:
+            !waiter.isDone()
+
+        when:
+            release.countDown()
+            final target = owner.get(10, TimeUnit.SECONDS)
+        then:
+            waiter.get(10, TimeUnit.SECONDS) == target
+            requests.get() == 0
+    }
+
+    def "should replace download left without cache entry by a process which died"() {
+        given:
+            final downloadDirectoryOfUrl = new DownloadCache(downloadDirectory, Long.MAX_VALUE).downloadDirectory(packageUrl())
+            FileUtils.writeByteArrayToFile(new File(downloadDirectoryOfUrl, "elasticsearch-6.3.0.zip"), [1, 2, 3] as byte[])
+        when:
+            final path = newDownloader().download()
+        then:
+            path.toFile().bytes == payload
+            requests.get() == 1
+    }
+
+    def "should verify package against published checksum and store it under its checksum"() {
+        given:
+            publishedChecksum = "${sha512(payload)}  elasticsearch-6.3.0.zip"
+        when:
+            final path = newDownloader().download()
+        then:
+            path.toFile().bytes == payload
+            path.parent.fileName.toString() == sha512(payload)
+    }
+
+    def "should reject package not matching checksum"() {
+        given:
+            publishedChecksum = published
+        when:
+            newDownloader(supplied).download()
+        then:
+            thrown(IOException)
+            !new File(downloadDirectory, "sha512").exists()
+
+        where:
+            published  | supplied
+            "0" * 128  | null
+            null       | "0" * 128
+    }
+
+    def "should trust recorded checksum on warm start"() {
+        given:
+            newDownloader(sha512(payload)).download()
+            final report = new StartupReport()
+        when:
+            newDownloader(sha512(payload).toUpperCase(), report).download()
+        then:
+            requests.get() == 1
+            report.isSkipped(StartupReport.Phase.DOWNLOAD)
+    }
+
+    def "should download package again when supplied checksum changed"() {
+        given:
+            newDownloader(sha512(payload)).download()
+            new Random().nextBytes(payload)
+        when:
+            final path = newDownloader(sha512(payload)).download()
+        then:
+            requests.get() == 2
+            path.toFile().bytes == payload
+    }
+
+    private void serveChecksum(HttpExchange exchange) {
+        if (publishedChecksum == null) {
+            exchange.sendResponseHeaders(404, -1)
+        } else {
+            exchange.sendResponseHeaders(200, publishedChecksum.length())
+            exchange.responseBody.write(publishedChecksum.bytes)
+        }
+        exchange.close()
+    }
+
+    def "should keep download cache within its size"() {
+        given:
+            newDownloader(null, new StartupReport(), payload.length).download()
+            new DownloadCache(downloadDirectory, Long.MAX_VALUE, { System.currentTimeMillis() - DownloadCache.RECENT_ACCESS_IN_MS - 1 })
+                    .lookup(packageUrl(), Optional.empty())
+            new Random().nextBytes(payload)
+        when:
+            final path = newDownloader(null, new StartupReport(), payload.length, "elasticsearch-6.4.0.zip").download()
+        then:
+            requests.get() == 2
+            new File(downloadDirectory, "sha512").list().toList() == [path.parent.fileName.toString()]
+    }
+
+    private URL packageUrl(String fileName = "elasticsearch-6.3.0.zip") {
+        server.url(fileName)
+    }
+
+    private ElasticDownloader newDownloader(String checksum = null, StartupReport report = new StartupReport(),
+                                            long cacheSize = Long.MAX_VALUE, String fileName = "elasticsearch-6.3.0.zip") {
+        final installation = new InstallationDescriptionBuilder(downloadUrl: packageUrl(fileName), downloadDirectory: downloadDirectory,
+                downloaderReadTimeoutInMs: 3000, downloaderConnections: 2, downloadChecksum: checksum, downloadCacheMaxSizeInBytes: cacheSize).build()
+        new ElasticDownloader(installation, report)
+    }
+}
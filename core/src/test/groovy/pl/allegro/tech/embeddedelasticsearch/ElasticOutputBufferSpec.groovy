@@ -0,0 +1,33 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import spock.lang.Specification
+
+class ElasticOutputBufferSpec extends Specification {
+
+    def "should keep lines in order until buffer is full"() {
+        given:
+            final buffer = new ElasticOutputBuffer(3)
+        when:
+            (1..2).each { buffer.append("line $it".toString()) }
+        then:
+            buffer.lines() == ["line 1", "line 2"]
+    }
+
+    def "should keep only most recent lines"() {
+        given:
+            final buffer = new ElasticOutputBuffer(3)
+        when:
+            (1..5).each { buffer.append("line $it".toString()) }
+        then:
+            buffer.lines() == ["line 3", "line 4", "line 5"]
+    }
+
+    def "should keep nothing when buffer is disabled"() {
+        given:
+            final buffer = new ElasticOutputBuffer(0)
+        when:
+            buffer.append("line")
+        then:
+            buffer.lines().isEmpty()
+    }
+}
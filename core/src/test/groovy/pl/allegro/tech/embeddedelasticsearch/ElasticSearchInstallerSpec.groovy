@@ -0,0 +1,86 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import com.sun.net.httpserver.HttpExchange
+import spock.lang.Specification
+
+import static pl.allegro.tech.embeddedelasticsearch.PackageServer.sha512
+import static pl.allegro.tech.embeddedelasticsearch.PackageServer.zip
+
+class ElasticSearchInstallerSpec extends Specification {
+
+    PackageServer server = new PackageServer("installer")
+    File directory = server.directory
+    byte[] elasticPackage = zip("elasticsearch-6.3.0/bin/elasticsearch": "#!/bin/bash", "elasticsearch-6.3.0/lib/elasticsearch.jar": "jar")
+
+    def setup() {
+        server.start { HttpExchange exchange ->
+            if (exchange.requestURI.path.endsWith(".sha512")) {
+                exchange.sendResponseHeaders(404, -1)
+            } else {
+                exchange.sendResponseHeaders(200, elasticPackage.length)
+                exchange.responseBody.write(elasticPackage)
+            }
+            exchange.close()
+        }
+    }
+
+    def cleanup() {
+        server.close()
+    }
+
+    def "should install differently configured distributions into separate directories"() {
+        given:
+            final plain = installer(new InstallationDescriptionBuilder(installationDirectory: directory))
+            final withPlugin = installer(new InstallationDescriptionBuilder(installationDirectory: directory,
+                    plugins: [new InstallationDescription.Plugin("analysis-stempel")]))
+            final fromMirror = installer(new InstallationDescriptionBuilder(installationDirectory: directory,
+                    downloadUrl: new URL("http://mirror.example.com/elasticsearch-6.3.0.zip")))
+        expect:
+            [plain, withPlugin, fromMirror]*.installationDirectory.toSet().size() == 3
+            [plain, withPlugin, fromMirror]*.installationDirectory.every {
+                it.parentFile == directory && it.name.startsWith("elasticsearch-6.3.0-")
+            }
+    }
+
+    def "should share installation directory between instances configured the same way"() {
+        expect:
+            installer(new InstallationDescriptionBuilder(installationDirectory: directory)).installationDirectory ==
+                    installer(new InstallationDescriptionBuilder(installationDirectory: directory)).installationDirectory
+    }
+
+    def "should install package extracted while it was downloaded"() {
+        given:
+            final report = new StartupReport()
+            final installer = installer(pipelinedInstallation(sha512(elasticPackage)), report)
+        when:
+            installer.install()
+        then:
+            new File(installer.installationDirectory, "bin/elasticsearch").text == "#!/bin/bash"
+            report.isSkipped(StartupReport.Phase.UNZIP)
+            directory.list().findAll { it.endsWith(".extracting") }.isEmpty()
+    }
+
+    def "should not install package extracted while it was downloaded when its checksum does not match"() {
+        given:
+            final installer = installer(pipelinedInstallation("0" * 128))
+        when:
+            installer.install()
+        then:
+            thrown(IOException)
+            !installer.installationDirectory.exists()
+            directory.list().findAll { it.endsWith(".extracting") }.isEmpty()
+    }
+
+    private InstallationDescriptionBuilder pipelinedInstallation(String checksum) {
+        new InstallationDescriptionBuilder(
+                downloadUrl: server.url("elasticsearch-6.3.0.zip"),
+                downloadDirectory: new File(directory, "download"),
+                installationDirectory: directory,
+                downloadChecksum: checksum,
+                pipelinedInstallation: true)
+    }
+
+    private static ElasticSearchInstaller installer(InstallationDescriptionBuilder description, StartupReport report = new StartupReport()) {
+        new ElasticSearchInstaller(description.build(), report)
+    }
+}
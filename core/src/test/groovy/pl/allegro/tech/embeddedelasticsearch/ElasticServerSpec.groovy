@@ -0,0 +1,57 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import org.apache.commons.lang3.SystemUtils
+import spock.lang.IgnoreIf
+import spock.lang.Specification
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS
+import static java.util.concurrent.TimeUnit.SECONDS
+
+@IgnoreIf({ SystemUtils.IS_OS_WINDOWS })
+class ElasticServerSpec extends Specification {
+
+    static final long STOP_TIMEOUT_IN_MS = 500
+
+    Process process
+
+    def cleanup() {
+        process?.destroyForcibly()
+    }
+
+    def "should wait for process which stops on termination request"() {
+        given:
+            process = new ProcessBuilder("sleep", "60").start()
+        when:
+            process.destroy()
+            final rc = ElasticServer.waitForExit(process, STOP_TIMEOUT_IN_MS)
+        then:
+            rc == 128 + 15
+    }
+
+    def "should request termination of process whose PID was not detected yet"() {
+        given:
+            process = new ProcessBuilder("sleep", "60").start()
+        when:
+            ElasticServer.stopElasticGracefully(process, -1)
+            final rc = ElasticServer.waitForExit(process, STOP_TIMEOUT_IN_MS)
+        then:
+            rc == 128 + 15
+    }
+
+    def "should kill process which ignores termination request once stop timeout elapses"() {
+        given:
+            process = new ProcessBuilder("sh", "-c", 'trap "" TERM; exec sleep 60').start()
+            Thread.sleep(200)
+            process.destroy()
+        expect:
+            !process.waitFor(200, MILLISECONDS)
+
+        when:
+            final startTime = System.nanoTime()
+            final rc = ElasticServer.waitForExit(process, STOP_TIMEOUT_IN_MS)
+        then:
+            rc == 128 + 9
+            !process.alive
+            System.nanoTime() - startTime < SECONDS.toNanos(5)
+    }
+}
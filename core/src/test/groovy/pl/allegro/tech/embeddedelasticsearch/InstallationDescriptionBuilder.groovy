@@ -0,0 +1,29 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+/**
+ * Test fixture with defaults of {@link EmbeddedElastic.Builder}, so specs set only the properties they care about, e.g.
+ * <pre>new InstallationDescriptionBuilder(version: "6.3.0", installationDirectory: dir).build()</pre>
+ */
+class InstallationDescriptionBuilder {
+
+    String version = "6.3.0"
+    URL downloadUrl = null
+    File downloadDirectory = null
+    File installationDirectory = null
+    boolean cleanInstallationDirectoryOnStop = true
+    List<InstallationDescription.Plugin> plugins = []
+    int downloaderConnectionTimeoutInMs = 3000
+    int downloaderReadTimeoutInMs = 300000
+    int downloaderConnections = 4
+    String downloadChecksum = null
+    long downloadCacheMaxSizeInBytes = Long.MAX_VALUE
+    boolean pipelinedInstallation = false
+    Proxy downloadProxy = null
+
+    InstallationDescription build() {
+        final url = downloadUrl ?: new URL("http://example.com/elasticsearch-${version}.zip")
+        new InstallationDescription(new InstallFromDirectUrl(url), downloadDirectory, installationDirectory,
+                cleanInstallationDirectoryOnStop, plugins, downloaderConnectionTimeoutInMs, downloaderReadTimeoutInMs,
+                downloaderConnections, downloadChecksum, downloadCacheMaxSizeInBytes, pipelinedInstallation, downloadProxy)
+    }
+}
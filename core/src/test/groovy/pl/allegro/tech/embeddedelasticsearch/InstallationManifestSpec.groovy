@@ -0,0 +1,67 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import org.apache.commons.io.FileUtils
+import spock.lang.Specification
+
+class InstallationManifestSpec extends Specification {
+
+    static final FINGERPRINT = InstallationManifest.fingerprint("6.3.0", "http://example.com/elasticsearch-6.3.0.zip", "", "")
+
+    File installationDirectory = new File(FileUtils.tempDirectory, "${UUID.randomUUID()}-installation")
+
+    def setup() {
+        FileUtils.writeStringToFile(new File(installationDirectory, "bin/elasticsearch"), "#!/bin/bash", "UTF-8")
+        FileUtils.writeStringToFile(new File(installationDirectory, "lib/elasticsearch.jar"), "jar content", "UTF-8")
+    }
+
+    def cleanup() {
+        FileUtils.deleteDirectory(installationDirectory)
+    }
+
+    def "should match installation with the same fingerprint"() {
+        given:
+            final manifest = new InstallationManifest(installationDirectory)
+            manifest.write(FINGERPRINT)
+        expect:
+            manifest.matches(FINGERPRINT)
+    }
+
+    def "should not match installation without manifest"() {
+        expect:
+            !new InstallationManifest(installationDirectory).matches(FINGERPRINT)
+    }
+
+    def "should not match installation made with different configuration"() {
+        given:
+            final manifest = new InstallationManifest(installationDirectory)
+            manifest.write(FINGERPRINT)
+        expect:
+            !manifest.matches(InstallationManifest.fingerprint("6.3.0", "http://example.com/elasticsearch-6.3.0.zip", "analysis-stempel", ""))
+    }
+
+    def "should not match installation with truncated or missing files"() {
+        given:
+            final manifest = new InstallationManifest(installationDirectory)
+            manifest.write(FINGERPRINT)
+        when:
+            modification.call(installationDirectory)
+        then:
+            !manifest.matches(FINGERPRINT)
+        where:
+            modification << [
+                    { File dir -> FileUtils.writeStringToFile(new File(dir, "lib/elasticsearch.jar"), "jar", "UTF-8") },
+                    { File dir -> FileUtils.forceDelete(new File(dir, "bin/elasticsearch")) }
+            ]
+    }
+
+    def "should ignore instance state when verifying installation"() {
+        given:
+            final manifest = new InstallationManifest(installationDirectory)
+            FileUtils.writeStringToFile(new File(installationDirectory, "data/nodes/0/_state"), "state", "UTF-8")
+            manifest.write(FINGERPRINT)
+        when:
+            FileUtils.deleteDirectory(new File(installationDirectory, "data"))
+        then:
+            manifest.matches(FINGERPRINT)
+    }
+}
@@ -0,0 +1,102 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import org.apache.commons.io.FileUtils
+import spock.lang.Specification
+
+import java.util.concurrent.Executor
+
+class InstanceDirectorySpec extends Specification {
+
+    File parentDirectory = new File(FileUtils.tempDirectory, "${UUID.randomUUID()}-instances")
+    File installationDirectory = new File(parentDirectory, "elasticsearch-6.3.0")
+
+    def setup() {
+        FileUtils.writeStringToFile(new File(installationDirectory, "config/jvm.options"), "-Xmx1g", "UTF-8")
+        FileUtils.writeStringToFile(new File(installationDirectory, "config/elasticsearch.yml"), "", "UTF-8")
+    }
+
+    def cleanup() {
+        FileUtils.deleteDirectory(parentDirectory)
+    }
+
+    def "should create distinct directories for instances of the same installation"() {
+        when:
+            final first = InstanceDirectory.create(new File(parentDirectory, "instances"), "elasticsearch-6.3.0")
+            final second = InstanceDirectory.create(new File(parentDirectory, "instances"), "elasticsearch-6.3.0")
+        then:
+            first.root != second.root
+            first.root.isDirectory()
+            second.root.isDirectory()
+    }
+
+    def "should configure instance without modifying installation"() {
+        given:
+            final instance = InstanceDirectory.create(new File(parentDirectory, "instances"), "elasticsearch-6.3.0")
+        when:
+            instance.configure(installationDirectory, new InstanceSettings().withSetting("cluster.name", "test"))
+        then:
+            new File(instance.configDirectory, "jvm.options").text == "-Xmx1g"
+            new File(instance.configDirectory, "elasticsearch.yml").text.contains("cluster.name: \"test\"")
+            new File(installationDirectory, "config/elasticsearch.yml").text == ""
+            instance.dataDirectory.isDirectory()
+            instance.logsDirectory.isDirectory()
+            instance.tmpDirectory.parentFile == instance.root
+            instance.tmpDirectory.isDirectory()
+    }
+
+    def "should delete only instance directory"() {
+        given:
+            final instance = InstanceDirectory.create(new File(parentDirectory, "instances"), "elasticsearch-6.3.0")
+            instance.configure(installationDirectory, new InstanceSettings())
+        when:
+            instance.delete()
+        then:
+            !instance.root.exists()
+            installationDirectory.isDirectory()
+    }
+
+    def "should keep data directory under separate instances directory"() {
+        given:
+            final instance = InstanceDirectory.create(new File(parentDirectory, "instances"), new File(parentDirectory, "memory"), "elasticsearch-6.3.0")
+        when:
+            instance.configure(installationDirectory, new InstanceSettings())
+        then:
+            instance.dataDirectory.isDirectory()
+            instance.dataDirectory.parentFile.parentFile == new File(parentDirectory, "memory")
+            !new File(instance.root, "data").exists()
+        when:
+            instance.delete()
+        then:
+            !instance.root.exists()
+            !instance.dataDirectory.parentFile.exists()
+    }
+
+    def "should rename instance directory before deleting it in background"() {
+        given:
+            final instancesDirectory = new File(parentDirectory, "instances")
+            final instance = InstanceDirectory.create(instancesDirectory, "elasticsearch-6.3.0")
+            instance.configure(installationDirectory, new InstanceSettings())
+            final List<Runnable> pendingDeletions = []
+        when:
+            instance.deleteInBackground({ pendingDeletions.add(it) } as Executor)
+        then:
+            !instance.root.exists()
+            instancesDirectory.listFiles().size() == 1
+            instancesDirectory.listFiles()[0].name.startsWith(instance.root.name + ".deleted-")
+        when:
+            pendingDeletions*.run()
+        then:
+            instancesDirectory.listFiles().size() == 0
+    }
+
+    def "should sweep directories left by interrupted background deletion"() {
+        given:
+            final instancesDirectory = new File(parentDirectory, "instances")
+            final instance = InstanceDirectory.create(instancesDirectory, "elasticsearch-6.3.0")
+            instance.deleteInBackground({ } as Executor)
+        when:
+            InstanceDirectory.sweepDeleted(instancesDirectory, { it.run() } as Executor)
+        then:
+            instancesDirectory.listFiles().size() == 0
+    }
+}
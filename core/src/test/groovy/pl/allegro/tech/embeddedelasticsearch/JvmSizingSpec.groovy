@@ -0,0 +1,65 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class JvmSizingSpec extends Specification {
+
+    static final long GB = 1024 * 1024 * 1024
+
+    @Unroll
+    def "should give #heapInMb MB heap to each of #instances instances on host with #memoryInGb GB"() {
+        expect:
+            new JvmSizing(memoryInGb * GB, 8, instances).heapInMb == heapInMb
+        where:
+            memoryInGb | instances | heapInMb
+            16         | 1         | 1024
+            16         | 4         | 1024
+            16         | 8         | 512
+            8          | 8         | 256
+            2          | 8         | 128
+    }
+
+    @Unroll
+    def "should share host between #expectedInstances instances when #startingNodes nodes start and #runningNodes run"() {
+        expect:
+            JvmSizing.concurrentInstances(startingNodes, runningNodes, expectedInstances) == instances
+        where:
+            startingNodes | runningNodes | expectedInstances || instances
+            1             | 0            | 1                 || 1
+            1             | 0            | 4                 || 4
+            1             | 5            | 4                 || 6
+            3             | 2            | 3                 || 5
+    }
+
+    def "should split processors between instances"() {
+        expect:
+            new JvmSizing(16 * GB, 8, 3).processors == 2
+            new JvmSizing(16 * GB, 2, 4).processors == 1
+    }
+
+    def "should put sized options before user options"() {
+        when:
+            def options = new JvmSizing(8 * GB, 8, 8).mergeWith("-Dfoo=bar")
+        then:
+            options.startsWith("-Xms256m -Xmx256m ")
+            options.contains("-XX:+UseSerialGC")
+            options.contains("-XX:ActiveProcessorCount=1")
+            options.endsWith(" -Dfoo=bar")
+            options.split(" ").findAll { it == "-XX:+IgnoreUnrecognizedVMOptions" }.size() == 1
+    }
+
+    def "should keep heap, garbage collector and processor count set by user"() {
+        when:
+            def options = new JvmSizing(8 * GB, 8, 8).mergeWith("-Xmx1g -XX:+UseG1GC -XX:ActiveProcessorCount=4")
+        then:
+            options == "-Xmx1g -XX:+UseG1GC -XX:ActiveProcessorCount=4"
+    }
+
+    def "should keep default garbage collector for large heap"() {
+        when:
+            def options = new JvmSizing(16 * GB, 8, 1).mergeWith("")
+        then:
+            options == "-Xms1024m -Xmx1024m"
+    }
+}
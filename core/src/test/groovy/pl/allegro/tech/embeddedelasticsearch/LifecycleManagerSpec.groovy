@@ -0,0 +1,57 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class LifecycleManagerSpec extends Specification {
+
+    LifecycleManager lifecycleManager = new LifecycleManager(Executors.newCachedThreadPool())
+
+    def cleanup() {
+        lifecycleManager.executor().shutdownNow()
+    }
+
+    def "should stop registered instances in parallel"() {
+        given:
+            def bothStopping = new CountDownLatch(2)
+            def stopped = Collections.synchronizedList([])
+            2.times { instance ->
+                lifecycleManager.register("instance $instance") {
+                    bothStopping.countDown()
+                    assert bothStopping.await(10, TimeUnit.SECONDS)
+                    stopped.add(instance)
+                }
+            }
+        when:
+            lifecycleManager.stopAll()
+        then:
+            stopped.toSet() == [0, 1].toSet()
+            lifecycleManager.registrationsCount == 0
+    }
+
+    def "should not stop instance which was already stopped"() {
+        given:
+            def stopped = []
+            def registration = lifecycleManager.register("instance") { stopped.add("instance") }
+        when:
+            registration.close()
+            lifecycleManager.stopAll()
+        then:
+            stopped.isEmpty()
+            lifecycleManager.registrationsCount == 0
+    }
+
+    def "should stop remaining instances when one fails to stop"() {
+        given:
+            def stopped = Collections.synchronizedList([])
+            lifecycleManager.register("failing") { throw new IllegalStateException("failed") }
+            lifecycleManager.register("working") { stopped.add("working") }
+        when:
+            lifecycleManager.stopAll()
+        then:
+            stopped == ["working"]
+    }
+}
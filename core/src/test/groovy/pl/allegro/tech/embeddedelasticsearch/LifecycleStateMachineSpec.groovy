@@ -0,0 +1,102 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+import static pl.allegro.tech.embeddedelasticsearch.LifecycleState.*
+
+class LifecycleStateMachineSpec extends Specification {
+
+    LifecycleStateMachine lifecycle = new LifecycleStateMachine()
+
+    def "should let exactly one of concurrent threads start"() {
+        given:
+            def executor = Executors.newFixedThreadPool(8)
+            def go = new CountDownLatch(1)
+            def results = (1..8).collect {
+                executor.submit({
+                    go.await()
+                    lifecycle.transition(EnumSet.of(NEW, STOPPED, FAILED), INSTALLING)
+                } as Callable<Boolean>)
+            }
+        when:
+            go.countDown()
+        then:
+            results*.get().count { it } == 1
+            lifecycle.state == INSTALLING
+        cleanup:
+            executor.shutdownNow()
+    }
+
+    def "should notify listeners about transitions"() {
+        given:
+            def transitions = []
+            lifecycle.addListener { from, to -> transitions << "$from->$to".toString() }
+        when:
+            lifecycle.transition(EnumSet.of(NEW), INSTALLING)
+            lifecycle.advance(BOOTING)
+            lifecycle.advance(BOOTING)
+            lifecycle.advance(READY)
+        then:
+            transitions == ["NEW->INSTALLING", "INSTALLING->BOOTING", "BOOTING->READY"]
+    }
+
+    def "should wake up waiting threads when state is entered"() {
+        given:
+            lifecycle.advance(BOOTING)
+            def executor = Executors.newFixedThreadPool(4)
+            def waiting = (1..4).collect {
+                executor.submit({ lifecycle.awaitSettled(EnumSet.of(PROVISIONED, FAILED), 10, TimeUnit.SECONDS) } as Callable<LifecycleState>)
+            }
+        when:
+            lifecycle.advance(READY)
+            lifecycle.advance(PROVISIONED)
+        then:
+            waiting*.get() == [PROVISIONED] * 4
+        cleanup:
+            executor.shutdownNow()
+    }
+
+    def "should return current state when it does not settle within timeout"() {
+        given:
+            lifecycle.advance(BOOTING)
+        expect:
+            lifecycle.awaitSettled(EnumSet.of(PROVISIONED), 10, TimeUnit.MILLISECONDS) == BOOTING
+    }
+
+    def "should keep failure cause"() {
+        given:
+            def cause = new IllegalStateException("failed")
+        when:
+            lifecycle.fail(cause)
+        then:
+            lifecycle.state == FAILED
+            lifecycle.failure == cause
+    }
+
+    def "should treat start state as reached when lifecycle is already past it"() {
+        given:
+            lifecycle.advance(INSTALLING)
+            lifecycle.advance(BOOTING)
+            lifecycle.advance(READY)
+            lifecycle.advance(PROVISIONED)
+        expect:
+            lifecycle.awaitReached(READY, Long.MAX_VALUE, TimeUnit.NANOSECONDS)
+            lifecycle.awaitReached(BOOTING, Long.MAX_VALUE, TimeUnit.NANOSECONDS)
+            lifecycle.awaitReached(PROVISIONED, Long.MAX_VALUE, TimeUnit.NANOSECONDS)
+    }
+
+    def "should not treat start state as reached once lifecycle stopped"() {
+        given:
+            lifecycle.advance(PROVISIONED)
+            lifecycle.advance(STOPPING)
+            lifecycle.advance(STOPPED)
+        expect:
+            !lifecycle.awaitReached(READY, Long.MAX_VALUE, TimeUnit.NANOSECONDS)
+            lifecycle.awaitReached(STOPPED, Long.MAX_VALUE, TimeUnit.NANOSECONDS)
+    }
+}
@@ -0,0 +1,32 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import org.apache.commons.io.FileUtils
+import spock.lang.Specification
+
+class MemoryFileSystemSpec extends Specification {
+
+    File mountPoint = new File(FileUtils.tempDirectory, "${UUID.randomUUID()}-shm")
+
+    def cleanup() {
+        FileUtils.deleteDirectory(mountPoint)
+    }
+
+    def "should place instances on file system with enough free space"() {
+        given:
+            mountPoint.mkdirs()
+        expect:
+            new MemoryFileSystem(mountPoint).instancesDirectory(1024).get() == new File(mountPoint, "embedded-elasticsearch")
+    }
+
+    def "should fall back to disk when file system has not enough free space"() {
+        given:
+            mountPoint.mkdirs()
+        expect:
+            !new MemoryFileSystem(mountPoint).instancesDirectory(mountPoint.usableSpace + 1).isPresent()
+    }
+
+    def "should fall back to disk when file system is not available"() {
+        expect:
+            !new MemoryFileSystem(mountPoint).instancesDirectory(1024).isPresent()
+    }
+}
@@ -0,0 +1,60 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpHandler
+import com.sun.net.httpserver.HttpServer
+import org.apache.commons.io.FileUtils
+
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+/**
+ * Test fixture serving packages over http on localhost, with temporary directory for downloads and installations
+ * deleted on close, e.g.
+ * <pre>server.start { HttpExchange exchange -> ... }; server.url("elasticsearch-6.3.0.zip")</pre>
+ */
+class PackageServer implements Closeable {
+
+    final File directory
+    final ExecutorService executor = Executors.newCachedThreadPool()
+    private final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+
+    PackageServer(String directoryName) {
+        directory = new File(FileUtils.tempDirectory, "${UUID.randomUUID()}-${directoryName}")
+    }
+
+    void start(Closure handler) {
+        server.executor = executor
+        server.createContext("/", { HttpExchange exchange -> handler.call(exchange) } as HttpHandler)
+        server.start()
+    }
+
+    URL url(String fileName) {
+        new URL("http://localhost:${server.address.port}/${fileName}")
+    }
+
+    @Override
+    void close() {
+        server.stop(0)
+        executor.shutdownNow()
+        FileUtils.deleteDirectory(directory)
+    }
+
+    static byte[] zip(Map<String, String> files) {
+        final bytes = new ByteArrayOutputStream()
+        new ZipOutputStream(bytes).withStream { zip ->
+            files.each { name, content ->
+                zip.putNextEntry(new ZipEntry(name))
+                zip.write(content.bytes)
+                zip.closeEntry()
+            }
+        }
+        bytes.toByteArray()
+    }
+
+    static String sha512(byte[] bytes) {
+        PackageChecksum.toHex(PackageChecksum.newDigest().digest(bytes))
+    }
+}
@@ -0,0 +1,77 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class PerformanceProfileSpec extends Specification {
+
+    static final File INSTALLATION_DIR = new File("/tmp/es")
+
+    @Unroll
+    def "should disable memory locking with #setting for #version"() {
+        when:
+            def settings = PerformanceProfile.TEST_FAST.nodeSettings(installation(version))
+        then:
+            settings.getSetting(setting).get() == false
+            settings.getSetting("cluster.routing.allocation.disk.threshold_enabled").get() == false
+        where:
+            version  | setting
+            "1.7.5"  | "bootstrap.mlockall"
+            "2.4.5"  | "bootstrap.mlockall"
+            "5.6.10" | "bootstrap.memory_lock"
+            "6.3.0"  | "bootstrap.memory_lock"
+    }
+
+    @Unroll
+    def "should limit processors with #setting for #version"() {
+        when:
+            def settings = PerformanceProfile.TEST_FAST.nodeSettings(installation(version))
+        then:
+            settings.getSetting(setting).get() <= 2
+        where:
+            version | setting
+            "1.7.5" | "processors"
+            "6.3.0" | "processors"
+            "7.0.0" | "node.processors"
+    }
+
+    def "should not use asynchronous translog on 1.x"() {
+        expect:
+            !PerformanceProfile.TEST_FAST.indexSettings(installation("1.7.5")).containsKey("translog.durability")
+            PerformanceProfile.TEST_FAST.indexSettings(installation("6.3.0")).get("translog.durability") == "async"
+    }
+
+    def "should not change anything with default profile"() {
+        expect:
+            PerformanceProfile.DEFAULT.nodeSettings(installation("6.3.0")).toYaml().trim() == "--- {}"
+            PerformanceProfile.DEFAULT.indexSettings(installation("6.3.0")).isEmpty()
+    }
+
+    def "should add default index settings unless they are set"() {
+        given:
+            def indexSettings = IndexSettings.builder()
+                    .withSettings('{"index": {"number_of_shards": 3}, "refresh_interval": "1s"}')
+                    .build()
+        when:
+            def json = indexSettings.toJson(["number_of_shards": 1, "number_of_replicas": 0, "refresh_interval": "30s", "translog.durability": "async"])
+        then:
+            json.get("settings").get("index").get("number_of_shards").asInt() == 3
+            json.get("settings").get("refresh_interval").asText() == "1s"
+            json.get("settings").get("index.number_of_replicas").asInt() == 0
+            !json.get("settings").has("index.number_of_shards")
+            !json.get("settings").has("index.refresh_interval")
+    }
+
+    def "should not modify index settings when adding defaults"() {
+        given:
+            def indexSettings = IndexSettings.builder().withSettings('{"number_of_shards": 3}').build()
+        when:
+            indexSettings.toJson(["number_of_replicas": 0])
+        then:
+            !indexSettings.toJson().get("settings").has("index.number_of_replicas")
+    }
+
+    private static InstallationDescription installation(String version) {
+        new InstallationDescriptionBuilder(version: version, installationDirectory: INSTALLATION_DIR).build()
+    }
+}
@@ -0,0 +1,49 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import org.apache.commons.io.FileUtils
+import spock.lang.Specification
+
+class PortAllocatorSpec extends Specification {
+
+    File registryDirectory = new File(FileUtils.tempDirectory, "${UUID.randomUUID()}-ports")
+    PortAllocator allocator = new PortAllocator(registryDirectory)
+    PortAllocator otherAllocator = new PortAllocator(registryDirectory)
+
+    def cleanup() {
+        FileUtils.deleteDirectory(registryDirectory)
+    }
+
+    def "should reserve distinct ports"() {
+        when:
+            final reservation = allocator.reserve(4)
+        then:
+            reservation.ports.size() == 4
+            reservation.ports.toSet().size() == 4
+        cleanup:
+            reservation.close()
+    }
+
+    def "should not reserve port reserved by another allocator"() {
+        given:
+            final reservation = allocator.reserve(1)
+        when:
+            final otherReservation = otherAllocator.tryLock(reservation.getPort(0))
+        then:
+            otherReservation == null
+        cleanup:
+            reservation.close()
+    }
+
+    def "should allow reserving port again once reservation is closed"() {
+        given:
+            final reservation = allocator.reserve(1)
+            final port = reservation.getPort(0)
+        when:
+            reservation.close()
+            final otherReservation = otherAllocator.tryLock(port)
+        then:
+            otherReservation != null
+        cleanup:
+            otherAllocator.release(otherReservation)
+    }
+}
@@ -0,0 +1,73 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import com.sun.net.httpserver.HttpServer
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+import static java.util.concurrent.TimeUnit.SECONDS
+
+class ReadinessStrategySpec extends Specification {
+
+    def "should signal readiness when Elasticsearch logs that it has started"() {
+        given:
+            final ready = new CompletableFuture<Void>()
+            final strategy = ReadinessStrategy.logScraping()
+        when:
+            strategy.onOutputLine("[2018-06-20T10:00:00,000][INFO ][o.e.n.Node               ] [node] starting ...", ready)
+        then:
+            !ready.done
+        when:
+            strategy.onOutputLine("[2018-06-20T10:00:05,000][INFO ][o.e.n.Node               ] [node] started", ready)
+        then:
+            ready.done
+    }
+
+    def "should signal readiness as soon as http port answers"() {
+        given:
+            final port = PortAllocator.findFreePort()
+            final ready = new CompletableFuture<Void>()
+            ReadinessStrategy.httpProbe().onProcessStarted(port, ready)
+        when:
+            Thread.sleep(200)
+        then:
+            !ready.done
+        when:
+            final server = HttpServer.create(new InetSocketAddress(InetAddress.loopbackAddress, port), 0)
+            server.createContext("/", { exchange ->
+                exchange.sendResponseHeaders(200, -1)
+                exchange.close()
+            })
+            server.start()
+        then:
+            ready.get(5, SECONDS) == null
+        cleanup:
+            server?.stop(0)
+    }
+
+    def "should probe again when node does not answer probe it accepted"() {
+        given:
+            final requests = new AtomicInteger()
+            final server = HttpServer.create(new InetSocketAddress(InetAddress.loopbackAddress, 0), 0)
+            server.executor = Executors.newCachedThreadPool()
+            server.createContext("/", { exchange ->
+                if (requests.incrementAndGet() == 1) {
+                    Thread.sleep(30_000)
+                }
+                exchange.sendResponseHeaders(200, -1)
+                exchange.close()
+            })
+            server.start()
+            final ready = new CompletableFuture<Void>()
+        when:
+            ReadinessStrategy.httpProbe().onProcessStarted(server.address.port, ready)
+        then:
+            ready.get(5, SECONDS) == null
+            requests.get() == 2
+        cleanup:
+            server.stop(0)
+            server.executor.shutdownNow()
+    }
+}
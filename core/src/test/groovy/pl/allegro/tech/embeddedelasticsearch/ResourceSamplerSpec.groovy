@@ -0,0 +1,80 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import org.apache.commons.io.FileUtils
+import spock.lang.Specification
+
+class ResourceSamplerSpec extends Specification {
+
+    static final long MB = 1024 * 1024
+
+    File procDirectory = new File(FileUtils.tempDirectory, "${UUID.randomUUID()}-proc")
+
+    def cleanup() {
+        FileUtils.deleteDirectory(procDirectory)
+    }
+
+    def "should read usage of process"() {
+        given:
+            fakeProcess(123, 250, 50, 42, 300, 400, 3)
+            def sampler = new ResourceSampler(procDirectory, { 123L }, 1000, LifecycleManager.get().scheduler())
+        when:
+            sampler.sample()
+        then:
+            def usage = sampler.usage.get()
+            usage.pid == 123
+            usage.cpuTimeInMs == 3000
+            usage.threads == 42
+            usage.rssInBytes == 300 * MB
+            usage.peakRssInBytes == 400 * MB
+            usage.openFileDescriptors == 3
+    }
+
+    def "should keep peaks between samples"() {
+        given:
+            def sampler = new ResourceSampler(procDirectory, { 123L }, 1000, LifecycleManager.get().scheduler())
+            fakeProcess(123, 100, 0, 80, 300, 300, 10)
+            sampler.sample()
+        when:
+            fakeProcess(123, 200, 0, 40, 200, 300, 5)
+            sampler.sample()
+        then:
+            def usage = sampler.usage.get()
+            usage.threads == 40
+            usage.peakThreads == 80
+            usage.openFileDescriptors == 5
+            usage.peakOpenFileDescriptors == 10
+    }
+
+    def "should not sample until process is known"() {
+        given:
+            def sampler = new ResourceSampler(procDirectory, { -1L }, 1000, LifecycleManager.get().scheduler())
+        when:
+            sampler.sample()
+        then:
+            !sampler.usage.isPresent()
+    }
+
+    def "should stop sampling without stopping shared scheduler"() {
+        given:
+            fakeProcess(123, 250, 50, 42, 300, 400, 3)
+            def sampler = new ResourceSampler(procDirectory, { 123L }, 10, LifecycleManager.get().scheduler())
+            sampler.start()
+        when:
+            def usage = sampler.stop()
+        then:
+            usage.get().pid == 123
+            !LifecycleManager.get().scheduler().isShutdown()
+    }
+
+    private void fakeProcess(long pid, long utime, long stime, int threads, long rssInMb, long peakRssInMb, int fileDescriptors) {
+        def processDirectory = new File(procDirectory, String.valueOf(pid))
+        FileUtils.deleteDirectory(processDirectory)
+        def fields = (3..52).collect { "0" }
+        fields[11] = String.valueOf(utime)
+        fields[12] = String.valueOf(stime)
+        fields[17] = String.valueOf(threads)
+        FileUtils.writeStringToFile(new File(processDirectory, "stat"), "$pid (java (es)) S ${fields.drop(1).join(" ")}\n", "UTF-8")
+        FileUtils.writeStringToFile(new File(processDirectory, "status"), "Name:\tjava\nVmHWM:\t${peakRssInMb * 1024} kB\nVmRSS:\t${rssInMb * 1024} kB\n", "UTF-8")
+        fileDescriptors.times { FileUtils.touch(new File(processDirectory, "fd/$it")) }
+    }
+}
@@ -0,0 +1,210 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import com.sun.net.httpserver.HttpExchange
+import spock.lang.Specification
+
+import java.util.concurrent.atomic.AtomicLong
+
+import static pl.allegro.tech.embeddedelasticsearch.PackageServer.sha512
+
+class SegmentedDownloadSpec extends Specification {
+
+    static final int PAYLOAD_SIZE = 4 * 1024 * 1024 + 123
+
+    PackageServer server = new PackageServer("download")
+    File directory = server.directory
+    File target = new File(directory, "elasticsearch-6.3.0.zip")
+
+    byte[] payload = randomBytes(PAYLOAD_SIZE)
+    String etag = '"v1"'
+    boolean rangesSupported = true
+    long brokenAfterBytes = -1
+    List<String> ranges = Collections.synchronizedList([])
+    AtomicLong servedBytes = new AtomicLong()
+
+    def setup() {
+        directory.mkdirs()
+        server.start { HttpExchange exchange -> serve(exchange) }
+    }
+
+    def cleanup() {
+        server.close()
+    }
+
+    def "should download ranges over several connections"() {
+        when:
+            download(4)
+        then:
+            target.bytes == payload
+            ranges.size() == 5
+            ranges.count { it.startsWith("bytes=0-") } == 2
+            !SegmentedDownload.partialFileOf(target).exists()
+            !SegmentedDownload.progressFileOf(target).exists()
+    }
+
+    def "should use single connection when server ignores ranges"() {
+        given:
+            rangesSupported = false
+        when:
+            download(4)
+        then:
+            target.bytes == payload
+            ranges == ["bytes=0-0"]
+    }
+
+    def "should resume interrupted download"() {
+        given:
+            brokenAfterBytes = 256 * 1024
+        when:
+            download(4)
+        then:
+            thrown(IOException)
+            !target.exists()
+            SegmentedDownload.progressFileOf(target).exists()
+
+        when:
+            brokenAfterBytes = -1
+            servedBytes.set(0)
+            download(4)
+        then:
+            target.bytes == payload
+            servedBytes.get() < PAYLOAD_SIZE - 4 * 256 * 1024
+            !SegmentedDownload.progressFileOf(target).exists()
+    }
+
+    def "should start over when remote file changed between attempts"() {
+        given:
+            brokenAfterBytes = 256 * 1024
+        when:
+            download(2)
+        then:
+            thrown(IOException)
+
+        when:
+            brokenAfterBytes = -1
+            payload = randomBytes(PAYLOAD_SIZE)
+            etag = '"v2"'
+            download(2)
+        then:
+            target.bytes == payload
+    }
+
+    def "should compute checksum while downloading"() {
+        given:
+            rangesSupported = ranged
+        when:
+            final checksum = download(4)
+        then:
+            checksum == sha512(payload)
+
+        where:
+            ranged << [true, false]
+    }
+
+    def "should compute checksum of resumed download"() {
+        given:
+            brokenAfterBytes = 256 * 1024
+        when:
+            download(4)
+        then:
+            thrown(IOException)
+
+        when:
+            brokenAfterBytes = -1
+            final checksum = download(4)
+        then:
+            checksum == sha512(payload)
+    }
+
+    def "should reject download not matching expected checksum"() {
+        when:
+            download(4, Optional.of("0" * 128))
+        then:
+            thrown(IOException)
+            !target.exists()
+            !SegmentedDownload.partialFileOf(target).exists()
+            !SegmentedDownload.progressFileOf(target).exists()
+    }
+
+    def "should stream downloaded bytes in order while downloading"() {
+        given:
+            rangesSupported = ranged
+            final streamed = new ByteArrayOutputStream()
+        when:
+            final checksum = download(4, Optional.empty(), { input -> streamed << input })
+        then:
+            streamed.toByteArray() == payload
+            target.bytes == payload
+            checksum == sha512(payload)
+
+        where:
+            ranged << [true, false]
+    }
+
+    def "should complete download not read by consumer to the end"() {
+        given:
+            rangesSupported = ranged
+        when:
+            final checksum = download(4, Optional.empty(), { input -> input.read(new byte[100]) })
+        then:
+            target.bytes == payload
+            checksum == sha512(payload)
+
+        where:
+            ranged << [true, false]
+    }
+
+    def "should fail consumer with download failure"() {
+        given:
+            brokenAfterBytes = 256 * 1024
+            IOException consumerFailure = null
+        when:
+            download(4, Optional.empty(), { input ->
+                try {
+                    input.bytes
+                } catch (IOException e) {
+                    consumerFailure = e
+                    throw e
+                }
+            })
+        then:
+            thrown(IOException)
+            consumerFailure.message.contains("elasticsearch-6.3.0.zip")
+    }
+
+    private String download(int connections, Optional<String> expectedChecksum = Optional.empty(),
+                            SegmentedDownload.StreamConsumer consumer = { input -> }) {
+        new SegmentedDownload(server.url("elasticsearch-6.3.0.zip"), target, connections,
+                3000, 3000, null, server.executor).download(expectedChecksum, consumer)
+    }
+
+    private void serve(HttpExchange exchange) {
+        String range = exchange.requestHeaders.getFirst("Range")
+        String ifRange = exchange.requestHeaders.getFirst("If-Range")
+        if (range != null) {
+            ranges.add(range)
+        }
+        long start = 0
+        long end = payload.length - 1
+        boolean partial = rangesSupported && range != null && (ifRange == null || ifRange == etag)
+        if (partial) {
+            String[] bounds = range.substring("bytes=".length()).split("-")
+            start = Long.parseLong(bounds[0])
+            end = Long.parseLong(bounds[1])
+            exchange.responseHeaders.add("Content-Range", "bytes ${start}-${end}/${payload.length}")
+            exchange.responseHeaders.add("ETag", etag)
+        }
+        long length = end - start + 1
+        exchange.sendResponseHeaders(partial ? 206 : 200, length)
+        long sent = brokenAfterBytes >= 0 && length > 1 ? Math.min(length, brokenAfterBytes) : length
+        exchange.responseBody.write(payload, (int) start, (int) sent)
+        servedBytes.addAndGet(sent)
+        exchange.close()
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size]
+        new Random().nextBytes(bytes)
+        bytes
+    }
+}
@@ -0,0 +1,25 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class StartupLogParserSpec extends Specification {
+
+    def "should extract pid"() {
+        expect:
+            StartupLogParser.extractPid("[2018-06-20T10:00:00,000][INFO ][o.e.n.Node               ] [node] version[6.3.0], pid[12345], build[default/zip/424e937/2018-06-11T23:38:03.357887Z]") == 12345
+    }
+
+    @Unroll
+    def "should extract port from publish address in '#line'"() {
+        expect:
+            StartupLogParser.extractPublishPort(line) == port
+        where:
+            line                                                                                                                         | port
+            "[INFO ][o.e.h.n.Netty4HttpServerTransport] [node] publish_address {127.0.0.1:9200}, bound_addresses {127.0.0.1:9200}"       | 9200
+            "[INFO ][o.e.t.TransportService   ] [node] publish_address {127.0.0.1:9300}, bound_addresses {[::1]:9300}, {127.0.0.1:9300}" | 9300
+            "[INFO ][http                     ] [node] publish_address {inet[/127.0.0.1:9201]}, bound_address {inet[/0:0:0:0:0:0:0:0:9201]}" | 9201
+            "[INFO ][http                     ] [node] publish_address {}"                                                              | -1
+            "[INFO ][node                     ] [node] started"                                                                          | -1
+    }
+}
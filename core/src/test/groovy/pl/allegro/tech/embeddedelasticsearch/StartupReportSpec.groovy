@@ -0,0 +1,42 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import spock.lang.Specification
+
+import static pl.allegro.tech.embeddedelasticsearch.StartupReport.Phase.DOWNLOAD
+import static pl.allegro.tech.embeddedelasticsearch.StartupReport.Phase.INDICES_CREATION
+import static pl.allegro.tech.embeddedelasticsearch.StartupReport.Phase.UNZIP
+
+class StartupReportSpec extends Specification {
+
+    def "should sum time spent in phase"() {
+        given:
+            final report = new StartupReport()
+        when:
+            2.times { report.measureVoid(INDICES_CREATION, { Thread.sleep(20) }) }
+        then:
+            report.getDuration(INDICES_CREATION).toMillis() >= 40
+            report.getDuration(UNZIP).isZero()
+    }
+
+    def "should report phases skipped thanks to caching"() {
+        given:
+            final report = new StartupReport()
+        when:
+            report.skip(DOWNLOAD, UNZIP)
+        then:
+            report.skippedPhases == [DOWNLOAD, UNZIP] as Set
+            report.isSkipped(DOWNLOAD)
+            !report.isSkipped(INDICES_CREATION)
+    }
+
+    def "should stop recording once start is completed"() {
+        given:
+            final report = new StartupReport()
+            report.complete(1_000_000)
+        when:
+            report.measureVoid(INDICES_CREATION, { Thread.sleep(5) })
+        then:
+            report.getDuration(INDICES_CREATION).isZero()
+            report.totalDuration.toMillis() == 1
+    }
+}
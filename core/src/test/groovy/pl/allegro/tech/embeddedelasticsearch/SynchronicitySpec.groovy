@@ -1,7 +1,10 @@
 package pl.allegro.tech.embeddedelasticsearch
 
+import org.apache.commons.io.FileUtils
 import spock.lang.Specification
 
+import java.util.concurrent.ExecutionException
+
 import static java.util.concurrent.TimeUnit.MINUTES
 import static pl.allegro.tech.embeddedelasticsearch.PopularProperties.HTTP_PORT
 
@@ -25,6 +28,78 @@ class SynchronicitySpec extends Specification {
         cleanup:
         server.stop()
     }
+
+    def "should start embedded instance at most once when started asynchronously"() {
+        given:
+        final server = EmbeddedElastic.builder()
+                .withElasticVersion(ELASTIC_VERSION)
+                .withStartTimeout(TEST_START_TIMEOUT_IN_MINUTES, MINUTES)
+                .withSetting(HTTP_PORT, HTTP_PORT_VALUE)
+                .build()
+
+        when:
+        final first = server.startAsync()
+        final second = server.startAsync()
+        server.start()
+
+        then:
+        first.is(second)
+        first.get(TEST_START_TIMEOUT_IN_MINUTES, MINUTES).is(server)
+
+        cleanup:
+        server.stopAsync().get(TEST_START_TIMEOUT_IN_MINUTES, MINUTES)
+    }
+
+    def "should not leave node running when stopped before asynchronous start began"() {
+        given:
+        final server = EmbeddedElastic.builder()
+                .withElasticVersion(ELASTIC_VERSION)
+                .withStartTimeout(TEST_START_TIMEOUT_IN_MINUTES, MINUTES)
+                .withSetting(HTTP_PORT, HTTP_PORT_VALUE)
+                .build()
+
+        when:
+        final started = server.startAsync()
+        server.stop()
+
+        then:
+        started.isDone()
+        server.state == LifecycleState.STOPPED
+        !server.isAlive()
+
+        cleanup:
+        server.stop()
+    }
+
+    def "should start asynchronously again after asynchronous start failed"() {
+        given:
+        final downloadDirectory = new File(FileUtils.tempDirectory, "${UUID.randomUUID()}-download")
+        final server = EmbeddedElastic.builder()
+                .withDownloadUrl(new URL("file:/nonexistent/elasticsearch-${ELASTIC_VERSION}.zip"))
+                .withDownloadDirectory(downloadDirectory)
+                .withStartTimeout(TEST_START_TIMEOUT_IN_MINUTES, MINUTES)
+                .build()
+        final first = server.startAsync()
+
+        when:
+        first.get(TEST_START_TIMEOUT_IN_MINUTES, MINUTES)
+
+        then:
+        thrown(ExecutionException)
+        server.state == LifecycleState.FAILED
+
+        when:
+        final second = server.startAsync()
+        second.get(TEST_START_TIMEOUT_IN_MINUTES, MINUTES)
+
+        then:
+        thrown(ExecutionException)
+        !second.is(first)
+
+        cleanup:
+        FileUtils.deleteDirectory(downloadDirectory)
+    }
+
     static final TEST_START_TIMEOUT_IN_MINUTES = 1
 
 }
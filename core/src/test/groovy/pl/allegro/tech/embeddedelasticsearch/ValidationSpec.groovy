@@ -87,6 +87,16 @@ class ValidationSpec extends Specification {
             thrown(IllegalArgumentException)
     }
 
+    def "should throw exception on negative output buffer size"() {
+        when:
+            EmbeddedElastic.builder()
+                    .withElasticVersion(ELASTIC_VERSION)
+                    .withOutputBufferSize(-1)
+                    .build()
+        then:
+            thrown(InvalidSetupException)
+    }
+
     static final TEST_START_TIMEOUT_IN_MINUTES = 1;
 
 }
@@ -16,7 +16,7 @@ class CustomInstallationDirectorySpec extends Specification {
     static final TRANSPORT_TCP_PORT_VALUE = 9930
     static final CLUSTER_NAME_VALUE = "customDirectoryTestCluster"
     static final File INSTALLATION_DIRECTORY = new File(System.getProperty("java.io.tmpdir"), "embedded-elasticsearch-custom-dir")
-    static final String ELASTIC_DIRECTORY_NAME = "elasticsearch-${ELASTIC_VERSION}"
+    static final String ELASTIC_DIRECTORY_PREFIX = "elasticsearch-${ELASTIC_VERSION}-"
 
     static EmbeddedElastic embeddedElastic = EmbeddedElastic.builder()
             .withElasticVersion(ELASTIC_VERSION)
@@ -44,7 +44,7 @@ class CustomInstallationDirectorySpec extends Specification {
             INSTALLATION_DIRECTORY.exists()
             INSTALLATION_DIRECTORY.listFiles()
                     .findAll { it.isDirectory() }
-                    .findAll { it.name == ELASTIC_DIRECTORY_NAME }.size() == 1
+                    .findAll { it.name.startsWith(ELASTIC_DIRECTORY_PREFIX) }.size() == 1
     }
 
     def "should not delete custom installation directory after stop"() {
@@ -55,7 +55,7 @@ class CustomInstallationDirectorySpec extends Specification {
             INSTALLATION_DIRECTORY.exists()
             INSTALLATION_DIRECTORY.listFiles()
                     .findAll { it.isDirectory() }
-                    .findAll { it.name == ELASTIC_DIRECTORY_NAME }.size() == 1
+                    .findAll { it.name.startsWith(ELASTIC_DIRECTORY_PREFIX) }.size() == 1
     }
 
 }
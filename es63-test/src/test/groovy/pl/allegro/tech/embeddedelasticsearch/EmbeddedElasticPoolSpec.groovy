@@ -0,0 +1,122 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import spock.lang.Specification
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS
+import static java.util.concurrent.TimeUnit.MINUTES
+import static java.util.concurrent.TimeUnit.SECONDS
+import static pl.allegro.tech.embeddedelasticsearch.EmbeddedElasticConfiguration.START_TIMEOUT_IN_MINUTES
+import static pl.allegro.tech.embeddedelasticsearch.EmbeddedElasticConfiguration.TEST_ES_JAVA_OPTS
+import static pl.allegro.tech.embeddedelasticsearch.SampleIndices.*
+
+class EmbeddedElasticPoolSpec extends Specification {
+
+    static final ELASTIC_VERSION = "6.3.0"
+
+    EmbeddedElastic.Builder elasticBuilder = EmbeddedElastic.builder()
+            .withElasticVersion(ELASTIC_VERSION)
+            .withEsJavaOpts(TEST_ES_JAVA_OPTS)
+            .withIndex(CARS_INDEX_NAME)
+            .withStartTimeout(START_TIMEOUT_IN_MINUTES, MINUTES)
+
+    EmbeddedElasticPool pool
+
+    def cleanup() {
+        pool?.close()
+    }
+
+    def "should fail lease when no instance is returned within lease timeout"() {
+        given:
+            pool = EmbeddedElasticPool.builder(elasticBuilder)
+                    .withSize(1)
+                    .withLeaseTimeout(500, MILLISECONDS)
+                    .build()
+                    .start()
+            final lease = pool.lease()
+        when:
+            pool.lease()
+        then:
+            thrown(IllegalStateException)
+        cleanup:
+            lease.close()
+    }
+
+    def "should reset indices of returned instance"() {
+        given:
+            pool = EmbeddedElasticPool.builder(elasticBuilder)
+                    .withSize(1)
+                    .build()
+                    .start()
+            final lease = pool.lease()
+            lease.elastic.index(CARS_INDEX_NAME, CAR_INDEX_TYPE, toJson(FIAT_126p))
+            lease.elastic.index("created-by-test", CAR_INDEX_TYPE, toJson(FIAT_126p))
+            lease.elastic.refreshIndices()
+        when:
+            lease.close()
+            final nextLease = pool.lease()
+        then:
+            nextLease.elastic.is(lease.elastic)
+            nextLease.elastic.fetchAllDocuments().isEmpty()
+        cleanup:
+            nextLease?.close()
+    }
+
+    def "should stop instances idle for too long and start them again when needed"() {
+        given:
+            pool = EmbeddedElasticPool.builder(elasticBuilder)
+                    .withSize(2)
+                    .withIdleEviction(200, MILLISECONDS, 1)
+                    .build()
+                    .start()
+        when:
+            waitUntil { pool.metrics.running == 1 }
+        then:
+            pool.metrics.evictions == 1
+            pool.metrics.idle == 1
+
+        when:
+            final leases = [pool.lease(), pool.lease()]
+        then:
+            leases*.elastic*.isAlive() == [true, true]
+            pool.metrics.replenishments == 1
+        cleanup:
+            leases*.close()
+    }
+
+    def "should replace instance which died while leased"() {
+        given:
+            pool = EmbeddedElasticPool.builder(elasticBuilder)
+                    .withSize(1)
+                    .build()
+                    .start()
+            final lease = pool.lease()
+            final died = lease.elastic
+            died.stop()
+        when:
+            lease.close()
+            final nextLease = pool.lease()
+        then:
+            !nextLease.elastic.is(died)
+            nextLease.elastic.isAlive()
+            pool.metrics.replenishments == 1
+        cleanup:
+            nextLease?.close()
+    }
+
+    def "should not modify builder of pooled instances"() {
+        when:
+            pool = EmbeddedElasticPool.builder(elasticBuilder)
+                    .withSize(2)
+                    .build()
+        then:
+            !elasticBuilder.build().automaticPorts
+    }
+
+    private static void waitUntil(Closure<Boolean> condition) {
+        final deadline = System.nanoTime() + SECONDS.toNanos(30)
+        while (!condition.call()) {
+            assert System.nanoTime() < deadline
+            Thread.sleep(50)
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package pl.allegro.tech.embeddedelasticsearch
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import spock.lang.Requires
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static java.util.concurrent.TimeUnit.MINUTES
+import static pl.allegro.tech.embeddedelasticsearch.SampleIndices.*
+
+/**
+ * Compares indexing throughput of instance kept on disk with instance kept on memory-backed file system. Documents
+ * are indexed in small batches, as tests usually do, so every batch pays for translog fsync. It starts three instances,
+ * so it runs only when requested with {@code ./gradlew :es63-test:test -Pbenchmark}.
+ */
+@Requires({ System.getProperty("benchmark") != null && new File("/dev/shm").isDirectory() })
+class MemoryBackedStorageBenchmarkSpec extends Specification {
+
+    static final Logger logger = LoggerFactory.getLogger(MemoryBackedStorageBenchmarkSpec)
+
+    static final BATCHES = 500
+    static final BATCH_SIZE = 10
+
+    @Unroll
+    def "should index documents with #storage storage"() {
+        given:
+            final embeddedElastic = EmbeddedElastic.builder()
+                    .withElasticVersion("6.3.0")
+                    .withEsJavaOpts("-Xms128m -Xmx512m")
+                    .withAutomaticPorts(true)
+                    .withMemoryBackedStorage(storage, 256)
+                    .withIndex(CARS_INDEX_NAME)
+                    .withStartTimeout(2, MINUTES)
+                    .build()
+                    .start()
+        when:
+            final startTime = System.nanoTime()
+            BATCHES.times {
+                embeddedElastic.index(CARS_INDEX_NAME, CAR_INDEX_TYPE, (1..BATCH_SIZE).collect { toJson(FIAT_126p) as CharSequence })
+            }
+            final durationInMs = (System.nanoTime() - startTime) / 1_000_000
+            embeddedElastic.refreshIndices()
+            logger.info("Indexed {} documents with {} storage in {} ms ({} documents/s)", BATCHES * BATCH_SIZE, storage,
+                    durationInMs as long, (BATCHES * BATCH_SIZE * 1000 / durationInMs) as long)
+        then:
+            !embeddedElastic.fetchAllDocuments(CARS_INDEX_NAME).isEmpty()
+        cleanup:
+            embeddedElastic?.stop()
+        where:
+            storage << [MemoryBackedStorage.NONE, MemoryBackedStorage.DATA, MemoryBackedStorage.INSTANCE]
+    }
+}